@@ -0,0 +1,167 @@
+package jlox.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark each phase of jlox (scan, parse, resolve, optimize, interpret)
+ * on the Lox programs in 'corpus'.
+ * 'interpretClosures' runs the program compiled to closures
+ * (the alternative to 'interpret').
+ * Each phase works on the output of the previous phases,
+ * which are prepared once per trial.
+ * The interpreters and their programs are set up before each invocation
+ * (see Run, ClosureRun), so only running the program is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({ "fib", "loops", "strings", "classes", "closures" })
+    public String program;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws IOException {
+        source = readProgram(program);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        new Resolver(new Environment()).resolve(statements);
+        if (Lox.hadError) {
+            throw new IllegalStateException("Invalid program '" + program + "'.");
+        }
+
+        // Discard the output of 'print' statements
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Object scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Object resolve() {
+        // Resolving the same statements again gives the same results
+        new Resolver(new Environment()).resolve(statements);
+        return statements;
+    }
+
+    /*
+     * A new interpreter and a new AST for each invocation, prepared like
+     * a run of jlox (parsed, resolved and optimized).
+     * Global slots belong to the interpreter's environment, so the AST is
+     * resolved against it. The AST can't be shared between runs: its nodes
+     * cache the shapes and callees they see, and each run creates new
+     * classes and functions (the caches would only measure their fallbacks).
+     */
+    @State(Scope.Thread)
+    public static class Run {
+        Interpreter interpreter;
+        List<Stmt> statements;
+        int frameSize;
+        boolean[] captured;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark benchmark) {
+            interpreter = new Interpreter();
+            statements = new Parser(benchmark.tokens).parse();
+            Resolver resolver = new Resolver(interpreter.globals);
+            resolver.resolve(statements);
+            frameSize = resolver.frameSize();
+            captured = resolver.captured();
+            new Optimizer().optimize(statements);
+        }
+    }
+
+    /* A Run whose program is compiled to closures before the invocation */
+    @State(Scope.Thread)
+    public static class ClosureRun {
+        final Run run = new Run();
+        ClosureCompiler.Exec program;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark benchmark) {
+            run.setup(benchmark);
+            program = new ClosureCompiler().compile(run.statements);
+        }
+    }
+
+    /* A new resolved AST for each invocation (the Optimizer updates it in place) */
+    @State(Scope.Thread)
+    public static class Resolved {
+        List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark benchmark) {
+            statements = new Parser(benchmark.tokens).parse();
+            new Resolver(new Environment()).resolve(statements);
+        }
+    }
+
+    @Benchmark
+    public Object optimize(Resolved resolved) {
+        new Optimizer().optimize(resolved.statements);
+        return resolved.statements;
+    }
+
+    @Benchmark
+    public Object interpret(Run run) {
+        run.interpreter.interpret(run.statements, run.frameSize, run.captured);
+        return run.interpreter;
+    }
+
+    @Benchmark
+    public Object interpretClosures(ClosureRun closures) {
+        Run run = closures.run;
+        run.interpreter.interpret(closures.program, run.frameSize, run.captured);
+        return run.interpreter;
+    }
+
+    /* Load a program from the corpus */
+    static String readProgram(String name) throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/corpus/" + name + ".lox")) {
+            if (in == null) {
+                throw new IOException("Program '" + name + "' not found in corpus.");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package jlox.lox;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare Table with java.util.HashMap and IdentityHashMap on name lookups
+ * (the keys are interned, like the names the Scanner produces).
+ * Each 'get' operation looks up every key once (hits),
+ * then as many keys that are not in the table (misses).
+ * Each 'build' operation adds every key to a new table.
+ * Each 'copy' operation copies the table and adds a key to the copy
+ * (like a transition to a new Shape).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+    // Number of keys (a small class's methods ... a large script's globals)
+    @Param({ "4", "16", "128" })
+    public int size;
+
+    private String[] keys;
+    private String[] missing;
+    private String added;
+    private Table<Object> table;
+    private HashMap<String, Object> hashMap;
+    private IdentityHashMap<String, Object> identityHashMap;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        missing = new String[size];
+        table = new Table<>();
+        hashMap = new HashMap<>();
+        identityHashMap = new IdentityHashMap<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            keys[i] = randomName(random, i);
+            missing[i] = randomName(random, size + i);
+            table.set(keys[i], i);
+            hashMap.put(keys[i], i);
+            identityHashMap.put(keys[i], i);
+        }
+        added = randomName(random, 2 * size);
+    }
+
+    /* An interned identifier (unique thanks to the suffix) */
+    private static String randomName(Random random, int suffix) {
+        StringBuilder name = new StringBuilder();
+        int length = 2 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            name.append((char) ('a' + random.nextInt(26)));
+        }
+        return name.append(suffix).toString().intern();
+    }
+
+    // The loops are repeated for each table type (not shared through
+    // the Map interface), so each call site only sees one type
+
+    @Benchmark
+    public int tableGet() {
+        int found = 0;
+        for (String key : keys) {
+            if (table.get(key) != null) {
+                found++;
+            }
+        }
+        for (String key : missing) {
+            if (table.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int hashMapGet() {
+        int found = 0;
+        for (String key : keys) {
+            if (hashMap.get(key) != null) {
+                found++;
+            }
+        }
+        for (String key : missing) {
+            if (hashMap.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int identityHashMapGet() {
+        int found = 0;
+        for (String key : keys) {
+            if (identityHashMap.get(key) != null) {
+                found++;
+            }
+        }
+        for (String key : missing) {
+            if (identityHashMap.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Object tableBuild() {
+        Table<Object> built = new Table<>();
+        for (int i = 0; i < size; i++) {
+            built.set(keys[i], keys[i]);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public Object hashMapBuild() {
+        Map<String, Object> built = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            built.put(keys[i], keys[i]);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public Object identityHashMapBuild() {
+        Map<String, Object> built = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            built.put(keys[i], keys[i]);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public Object tableCopy() {
+        Table<Object> copy = new Table<>(table);
+        copy.set(added, added);
+        return copy;
+    }
+
+    @Benchmark
+    public Object hashMapCopy() {
+        Map<String, Object> copy = new HashMap<>(hashMap);
+        copy.put(added, added);
+        return copy;
+    }
+
+    @Benchmark
+    public Object identityHashMapCopy() {
+        Map<String, Object> copy = new IdentityHashMap<>(identityHashMap);
+        copy.put(added, added);
+        return copy;
+    }
+}
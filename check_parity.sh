@@ -0,0 +1,74 @@
+#!/bin/bash
+
+# Run every program of the corpus in each mode and compare the output
+# (stdout, stderr and exit code) with the tree-walking interpreter's.
+# Build first with build_jlox.sh.
+#
+# The corpus: the benchmark programs, plus generated programs past the
+# operand limits of clox's bytecode format (the VM has none of them),
+# and deep tail recursion.
+
+cd "$(dirname "$0")"
+
+corpus=$(mktemp -d)
+trap 'rm -rf "$corpus"' EXIT
+
+cp bench/src/main/resources/corpus/*.lox "$corpus"
+
+# More than 256 locals in a function, all captured by a closure
+{
+    echo "fun outer() {"
+    for i in $(seq 0 299); do echo "  var v$i = $i;"; done
+    echo "  fun inner() { return v0 + v150 + v299; }"
+    echo "  return inner() + v299;"
+    echo "}"
+    echo "print outer();"
+} > "$corpus/locals.lox"
+
+# Jumps over more than 64K of bytecode
+{
+    echo "var x = 0;"
+    echo "var i = 0;"
+    echo "while (i < 2) {"
+    echo "  if (i == 0) {"
+    for i in $(seq 1 20000); do echo "    x = x + $i;"; done
+    echo "  }"
+    echo "  i = i + 1;"
+    echo "}"
+    echo "print x;"
+} > "$corpus/jumps.lox"
+
+# More than 64K constants in the script
+{
+    for i in $(seq 0 39999); do echo "var g$i = $i.5;"; done
+    echo "print g0 + g39999;"
+} > "$corpus/constants.lox"
+
+# Tail calls deeper than the default --max-depth (a call in tail position
+# runs in place of its caller: no mode counts it as a call in progress)
+{
+    echo "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }"
+    echo "print count(1500000, 0);"
+    echo "class Countdown {"
+    echo "  down(n) { if (n == 0) return \"done\"; return this.down(n - 1); }"
+    echo "}"
+    echo "print Countdown().down(1500000);"
+} > "$corpus/tailcalls.lox"
+
+failed=0
+for program in "$corpus"/*.lox; do
+    expected=$(java jlox.lox.Lox "$program" 2>&1; echo "exit $?")
+    for mode in --vm --closures --compile; do
+        actual=$(java jlox.lox.Lox $mode "$program" 2>&1; echo "exit $?")
+        if [ "$actual" != "$expected" ]; then
+            echo "FAIL $(basename "$program") $mode"
+            diff <(echo "$expected") <(echo "$actual") | head -10
+            failed=1
+        fi
+    done
+done
+
+if [ $failed = 0 ]; then
+    echo "All modes match"
+fi
+exit $failed
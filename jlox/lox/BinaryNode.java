@@ -0,0 +1,225 @@
+package jlox.lox;
+
+/**
+ * Self-specializing implementation of a binary operator.
+ * Each Expr.Binary starts with the UNINITIALIZED node. On its first execution
+ * the node rewrites itself into a node specialized for the observed operand
+ * types (e.g. PLUS on 2 numbers -> ADD). If a specialization later sees
+ * operands it can't handle, it rewrites itself back to a generic node.
+ * Evaluation then dispatches on the node instead of re-checking
+ * the operator type every time.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+
+    static final Arithmetic ADD = new Add();
+    static final Arithmetic SUBTRACT = new Subtract();
+    static final Arithmetic MULTIPLY = new Multiply();
+    static final Arithmetic DIVIDE = new Divide();
+    static final BinaryNode STRING_ADD = new StringAdd();
+    static final BinaryNode GENERIC_ADD = new GenericAdd();
+
+    static final Comparison GREATER = new Greater();
+    static final Comparison GREATER_EQUAL = new GreaterEqual();
+    static final Comparison LESS = new Less();
+    static final Comparison LESS_EQUAL = new LessEqual();
+
+    static final BinaryNode EQUAL = new Equal();
+    static final BinaryNode NOT_EQUAL = new NotEqual();
+
+    /* Apply the operator to the evaluated operands */
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    /**
+     * Return the node for an operator whose operands are known to be numbers.
+     * (an Arithmetic or a Comparison node, null for other operators)
+     */
+    static BinaryNode forNumbers(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return ADD;
+            case MINUS:
+                return SUBTRACT;
+            case STAR:
+                return MULTIPLY;
+            case SLASH:
+                return DIVIDE;
+            case GREATER:
+                return GREATER;
+            case GREATER_EQUAL:
+                return GREATER_EQUAL;
+            case LESS:
+                return LESS;
+            case LESS_EQUAL:
+                return LESS_EQUAL;
+            default:
+                return null;
+        }
+    }
+
+    /* Replace the node of the expression and execute the new node */
+    static Object rewrite(Expr.Binary expr, BinaryNode node, Object left, Object right) {
+        expr.node = node;
+        return node.execute(expr, left, right);
+    }
+
+    /* Not executed yet: specialize on the first operands */
+    private static class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            BinaryNode node;
+            switch (expr.operator.type) {
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        node = ADD;
+                    } else if (Rope.isString(left) && Rope.isString(right)) {
+                        node = STRING_ADD;
+                    } else {
+                        node = GENERIC_ADD;
+                    }
+                    break;
+                case BANG_EQUAL:
+                    node = NOT_EQUAL;
+                    break;
+                case EQUAL_EQUAL:
+                    node = EQUAL;
+                    break;
+                default:
+                    node = forNumbers(expr.operator.type);
+                    break;
+            }
+
+            return rewrite(expr, node, left, right);
+        }
+    }
+
+    /* Operators that take 2 numbers and produce a number */
+    abstract static class Arithmetic extends BinaryNode {
+        abstract double apply(double left, double right);
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((double) left, (double) right);
+            }
+            throw new RuntimeError(expr.operator, "Operands must be numbers.");
+        }
+    }
+
+    /* PLUS that has only seen numbers */
+    private static class Add extends Arithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left + right;
+        }
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            return rewrite(expr, GENERIC_ADD, left, right);
+        }
+    }
+
+    private static class Subtract extends Arithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left - right;
+        }
+    }
+
+    private static class Multiply extends Arithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left * right;
+        }
+    }
+
+    private static class Divide extends Arithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left / right;
+        }
+    }
+
+    /* PLUS that has only seen strings */
+    private static class StringAdd extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Rope.isString(left) && Rope.isString(right)) {
+                return Rope.concat(left, right);
+            }
+            return rewrite(expr, GENERIC_ADD, left, right);
+        }
+    }
+
+    /* PLUS that has seen mixed operand types */
+    private static class GenericAdd extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            if (Rope.isString(left) && Rope.isString(right)) {
+                return Rope.concat(left, right);
+            }
+            throw new RuntimeError(expr.operator, "Operands must be 2 numbers or 2 strings.");
+        }
+    }
+
+    /* Operators that take 2 numbers and produce a boolean */
+    abstract static class Comparison extends BinaryNode {
+        abstract boolean apply(double left, double right);
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((double) left, (double) right);
+            }
+            throw new RuntimeError(expr.operator, "Operands must be numbers.");
+        }
+    }
+
+    private static class Greater extends Comparison {
+        @Override
+        boolean apply(double left, double right) {
+            return left > right;
+        }
+    }
+
+    private static class GreaterEqual extends Comparison {
+        @Override
+        boolean apply(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    private static class Less extends Comparison {
+        @Override
+        boolean apply(double left, double right) {
+            return left < right;
+        }
+    }
+
+    private static class LessEqual extends Comparison {
+        @Override
+        boolean apply(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    private static class Equal extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    }
+
+    private static class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    }
+}
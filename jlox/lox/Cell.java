@@ -0,0 +1,16 @@
+package jlox.lox;
+
+/**
+ * Box for a local variable that is captured by a closure.
+ * The variable's frame slot and every closure that captured it
+ * share the same Cell, so assignments are seen by all of them.
+ * (like clox's ObjUpvalue, but boxed when the variable is declared
+ * instead of when its frame is discarded)
+ */
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,35 @@
+package jlox.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A dynamic array of bytecode instructions.
+ * (mirror clox's chunk.h, but each opcode and each operand takes an int:
+ * operands can't overflow, and the VM reads them without decoding bytes)
+ */
+class Chunk {
+    int[] code = new int[8];
+    int[] lines = new int[8]; // source line number of the corresponding bytecode
+    int count = 0;
+    final List<Object> constants = new ArrayList<>();
+
+    /* Append an opcode or an operand to the chunk */
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    /* Return the index where the constant was appended */
+    int addConstant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+}
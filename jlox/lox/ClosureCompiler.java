@@ -0,0 +1,541 @@
+package jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Closure compilation: translate the resolved AST into a tree of Java
+ * lambdas, once, before running it (selected with --closures).
+ * Each lambda is specialized for its node: the operator, the kind of
+ * variable access and its slot are decided at compile time, so running
+ * the program doesn't dispatch on node types (no visitor) or re-check
+ * what the Resolver already knows.
+ * The lambdas run on the Interpreter's runtime (frames, globals, calls),
+ * so both modes share functions, classes and instances.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Eval>, Stmt.Visitor<ClosureCompiler.Exec> {
+    /* A compiled expression */
+    interface Eval {
+        Object evaluate(Interpreter interpreter);
+    }
+
+    /* A compiled numeric expression (see Interpreter.isNumeric) */
+    interface Num {
+        double evaluate(Interpreter interpreter);
+    }
+
+    /* A compiled condition (truthiness of an expression) */
+    interface Test {
+        boolean test(Interpreter interpreter);
+    }
+
+    /* A compiled statement */
+    interface Exec {
+        Completion execute(Interpreter interpreter);
+    }
+
+    /* Compile the program (function bodies are compiled into their declarations) */
+    Exec compile(List<Stmt> statements) {
+        return sequence(statements);
+    }
+
+    private Exec compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Eval compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /* Statements in order, stop at a 'return' */
+    private Exec sequence(List<Stmt> statements) {
+        Exec[] execs = new Exec[statements.size()];
+        for (int i = 0; i < execs.length; i++) {
+            execs[i] = compile(statements.get(i));
+        }
+
+        if (execs.length == 1) {
+            return execs[0];
+        }
+
+        return interpreter -> {
+            for (Exec exec : execs) {
+                Completion completion = exec.execute(interpreter);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    /* Compile the body of a function into its declaration */
+    private void compileFunction(Stmt.Function function) {
+        function.code = sequence(function.body);
+    }
+
+    @Override
+    public Exec visitBlockStmt(Stmt.Block stmt) {
+        // The block's variables already have slots in the current frame
+        return sequence(stmt.statements);
+    }
+
+    @Override
+    public Exec visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            compileFunction(method);
+        }
+
+        if (stmt.superclass == null) {
+            return interpreter -> {
+                interpreter.declareClass(stmt, null);
+                return Completion.NORMAL;
+            };
+        }
+
+        Eval superclass = compile(stmt.superclass);
+        return interpreter -> {
+            interpreter.declareClass(stmt, superclass.evaluate(interpreter));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitExpressionStmt(Stmt.Expression stmt) {
+        Eval expression = compile(stmt.expression);
+        return interpreter -> {
+            expression.evaluate(interpreter);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitForStmt(Stmt.For stmt) {
+        Exec initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+        Test condition = stmt.condition == null ? interpreter -> true : condition(stmt.condition);
+        Eval increment = stmt.increment == null ? null : compile(stmt.increment);
+        Exec body = compile(stmt.body);
+
+        return interpreter -> {
+            if (initializer != null) {
+                initializer.execute(interpreter);
+            }
+
+            while (condition.test(interpreter)) {
+                Completion completion = body.execute(interpreter);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+
+                if (increment != null) {
+                    increment.evaluate(interpreter);
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitFunctionStmt(Stmt.Function stmt) {
+        compileFunction(stmt);
+        return interpreter -> {
+            interpreter.declareFunction(stmt);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitIfStmt(Stmt.If stmt) {
+        Test condition = condition(stmt.condition);
+        Exec thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return interpreter -> condition.test(interpreter) ? thenBranch.execute(interpreter) : Completion.NORMAL;
+        }
+
+        Exec elseBranch = compile(stmt.elseBranch);
+        return interpreter -> condition.test(interpreter)
+                ? thenBranch.execute(interpreter)
+                : elseBranch.execute(interpreter);
+    }
+
+    @Override
+    public Exec visitPrintStmt(Stmt.Print stmt) {
+        Eval expression = compile(stmt.expression);
+        return interpreter -> {
+            System.out.println(Interpreter.stringify(expression.evaluate(interpreter)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            Eval call = call((Expr.Call) stmt.value, true);
+            return interpreter -> (Completion) call.evaluate(interpreter);
+        }
+
+        if (stmt.value == null) {
+            return interpreter -> interpreter.returnWith(null);
+        }
+
+        Eval value = compile(stmt.value);
+        return interpreter -> interpreter.returnWith(value.evaluate(interpreter));
+    }
+
+    @Override
+    public Exec visitVarStmt(Stmt.Var stmt) {
+        Eval initializer = stmt.initializer == null ? interpreter -> null : compile(stmt.initializer);
+        int slot = stmt.slot;
+        int global = stmt.global;
+
+        if (slot == -1) {
+            return interpreter -> {
+                interpreter.globals.define(global, initializer.evaluate(interpreter));
+                return Completion.NORMAL;
+            };
+        }
+
+        return interpreter -> {
+            interpreter.defineLocal(slot, initializer.evaluate(interpreter));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Exec visitWhileStmt(Stmt.While stmt) {
+        Test condition = condition(stmt.condition);
+        Exec body = compile(stmt.body);
+
+        return interpreter -> {
+            while (condition.test(interpreter)) {
+                Completion completion = body.execute(interpreter);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    /* Compile the truthiness of an expression (compare numbers without boxing) */
+    private Test condition(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (Interpreter.isNumeric(binary.left) && Interpreter.isNumeric(binary.right)) {
+                Test comparison = comparison(binary.operator.type, number(binary.left), number(binary.right));
+                if (comparison != null) {
+                    return comparison;
+                }
+            }
+        }
+
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            Test right = condition(((Expr.Unary) expr).right);
+            return interpreter -> !right.test(interpreter);
+        }
+
+        Eval value = compile(expr);
+        return interpreter -> Interpreter.isTruthy(value.evaluate(interpreter));
+    }
+
+    /* Comparison of 2 numbers (null for other operators) */
+    private static Test comparison(TokenType operator, Num left, Num right) {
+        switch (operator) {
+            case GREATER:
+                return interpreter -> left.evaluate(interpreter) > right.evaluate(interpreter);
+            case GREATER_EQUAL:
+                return interpreter -> left.evaluate(interpreter) >= right.evaluate(interpreter);
+            case LESS:
+                return interpreter -> left.evaluate(interpreter) < right.evaluate(interpreter);
+            case LESS_EQUAL:
+                return interpreter -> left.evaluate(interpreter) <= right.evaluate(interpreter);
+            default:
+                return null;
+        }
+    }
+
+    /* Compile a numeric expression (see Interpreter.isNumeric) to primitive doubles */
+    private Num number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            double value = (double) ((Expr.Literal) expr).value;
+            return interpreter -> value;
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return number(((Expr.Grouping) expr).expression);
+        }
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (Interpreter.isNumeric(unary.right)) {
+                Num right = number(unary.right);
+                return interpreter -> -right.evaluate(interpreter);
+            }
+
+            Eval right = compile(unary.right);
+            Token operator = unary.operator;
+            return interpreter -> {
+                Object value = right.evaluate(interpreter);
+                if (value instanceof Double) {
+                    return -(double) value;
+                }
+                throw new RuntimeError(operator, "Operand must be a number.");
+            };
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        if (Interpreter.isNumeric(binary.left) && Interpreter.isNumeric(binary.right)) {
+            Num left = number(binary.left);
+            Num right = number(binary.right);
+            switch (binary.operator.type) {
+                case PLUS:
+                    return interpreter -> left.evaluate(interpreter) + right.evaluate(interpreter);
+                case MINUS:
+                    return interpreter -> left.evaluate(interpreter) - right.evaluate(interpreter);
+                case STAR:
+                    return interpreter -> left.evaluate(interpreter) * right.evaluate(interpreter);
+                default:
+                    return interpreter -> left.evaluate(interpreter) / right.evaluate(interpreter);
+            }
+        }
+
+        // Both operands are evaluated before their types are checked
+        // (the Resolver has specialized the node for numbers)
+        Eval left = compile(binary.left);
+        Eval right = compile(binary.right);
+        BinaryNode node = binary.node;
+        return interpreter -> (double) node.execute(binary, left.evaluate(interpreter), right.evaluate(interpreter));
+    }
+
+    @Override
+    public Eval visitAssignExpr(Expr.Assign expr) {
+        Eval value = compile(expr.value);
+
+        if (expr.slot != -1) {
+            int slot = expr.slot;
+            return interpreter -> {
+                Object result = value.evaluate(interpreter);
+                interpreter.setLocal(slot, result);
+                return result;
+            };
+        }
+
+        if (expr.upvalue != -1) {
+            int upvalue = expr.upvalue;
+            return interpreter -> {
+                Object result = value.evaluate(interpreter);
+                interpreter.upvalue(upvalue).value = result;
+                return result;
+            };
+        }
+
+        int global = expr.global;
+        Token name = expr.name;
+        return interpreter -> {
+            Object result = value.evaluate(interpreter);
+            interpreter.globals.assign(global, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Eval visitBinaryExpr(Expr.Binary expr) {
+        // Arithmetic on numbers: only box the final result
+        if (expr.numeric) {
+            Num number = number(expr);
+            return interpreter -> number.evaluate(interpreter);
+        }
+
+        // Comparison of numbers: don't box the operands
+        if (Interpreter.isNumeric(expr.left) && Interpreter.isNumeric(expr.right)) {
+            Test comparison = comparison(expr.operator.type, number(expr.left), number(expr.right));
+            if (comparison != null) {
+                return interpreter -> comparison.test(interpreter);
+            }
+        }
+
+        Eval left = compile(expr.left);
+        Eval right = compile(expr.right);
+        switch (expr.operator.type) {
+            case EQUAL_EQUAL:
+                return interpreter -> Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            case BANG_EQUAL:
+                return interpreter -> !Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            default:
+                // Dispatch on the node specialized for the operand types seen so far
+                return interpreter -> expr.node.execute(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+        }
+    }
+
+    @Override
+    public Eval visitCallExpr(Expr.Call expr) {
+        return call(expr, false);
+    }
+
+    /*
+     * Compile a call. A call in tail position ('tail') is left to
+     * the caller's trampoline: it evaluates to the Completion of
+     * the 'return' statement (see Interpreter.tailCall).
+     */
+    private Eval call(Expr.Call expr, boolean tail) {
+        Eval[] arguments = new Eval[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        LoxCallSite site = expr.site;
+
+        // Method call: pass the instance as 'this' directly,
+        // without creating a bound method
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Eval object = compile(get.object);
+            return interpreter -> {
+                Object value = object.evaluate(interpreter);
+                if (!(value instanceof LoxInstance)) {
+                    throw new RuntimeError(get.name, "Only instances have properties.");
+                }
+
+                LoxInstance instance = (LoxInstance) value;
+                LoxFunction method = get.cache.findMethod(instance, get.name);
+                if (method != null) {
+                    List<Object> values = evaluate(interpreter, arguments);
+                    return tail
+                            ? interpreter.tailCall(expr, method, instance, values)
+                            : site.call(method, instance, interpreter, values);
+                }
+
+                Object callee = get.cache.get(instance, get.name);
+                List<Object> values = evaluate(interpreter, arguments);
+                return tail
+                        ? interpreter.tailCall(expr, callee, null, values)
+                        : site.call(callee, null, interpreter, values);
+            };
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            return interpreter -> {
+                LoxFunction method = interpreter.findSuperMethod(superExpr);
+                LoxInstance receiver = interpreter.superReceiver(superExpr);
+                List<Object> values = evaluate(interpreter, arguments);
+                return tail
+                        ? interpreter.tailCall(expr, method, receiver, values)
+                        : site.call(method, receiver, interpreter, values);
+            };
+        }
+
+        Eval callee = compile(expr.callee);
+        return interpreter -> {
+            Object function = callee.evaluate(interpreter);
+            List<Object> values = evaluate(interpreter, arguments);
+            return tail
+                    ? interpreter.tailCall(expr, function, null, values)
+                    : site.call(function, null, interpreter, values);
+        };
+    }
+
+    private static List<Object> evaluate(Interpreter interpreter, Eval[] arguments) {
+        List<Object> values = new ArrayList<>(arguments.length);
+        for (Eval argument : arguments) {
+            values.add(argument.evaluate(interpreter));
+        }
+        return values;
+    }
+
+    @Override
+    public Eval visitGetExpr(Expr.Get expr) {
+        Eval object = compile(expr.object);
+        return interpreter -> {
+            Object value = object.evaluate(interpreter);
+            if (value instanceof LoxInstance) {
+                return expr.cache.get((LoxInstance) value, expr.name);
+            }
+
+            throw new RuntimeError(expr.name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public Eval visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Eval visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return interpreter -> value;
+    }
+
+    @Override
+    public Eval visitLogicalExpr(Expr.Logical expr) {
+        Eval left = compile(expr.left);
+        Eval right = compile(expr.right);
+
+        // OR returns the first truthy value, AND the first falsy value
+        if (expr.operator.type == TokenType.OR) {
+            return interpreter -> {
+                Object value = left.evaluate(interpreter);
+                return Interpreter.isTruthy(value) ? value : right.evaluate(interpreter);
+            };
+        }
+
+        return interpreter -> {
+            Object value = left.evaluate(interpreter);
+            return Interpreter.isTruthy(value) ? right.evaluate(interpreter) : value;
+        };
+    }
+
+    @Override
+    public Eval visitSetExpr(Expr.Set expr) {
+        Eval object = compile(expr.object);
+        Eval value = compile(expr.value);
+        return interpreter -> {
+            Object instance = object.evaluate(interpreter);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(expr.name, "Only instances have fields.");
+            }
+
+            Object result = value.evaluate(interpreter);
+            expr.cache.set((LoxInstance) instance, expr.name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Eval visitSuperExpr(Expr.Super expr) {
+        return interpreter -> interpreter.findSuperMethod(expr).bind(interpreter.superReceiver(expr));
+    }
+
+    @Override
+    public Eval visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.slot, expr.upvalue, -1);
+    }
+
+    @Override
+    public Eval visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            Test right = condition(expr.right);
+            return interpreter -> !right.test(interpreter);
+        }
+
+        Num number = number(expr);
+        return interpreter -> number.evaluate(interpreter);
+    }
+
+    @Override
+    public Eval visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.slot, expr.upvalue, expr.global);
+    }
+
+    /* Read a variable from where the Resolver found it */
+    private static Eval variable(Token name, int slot, int upvalue, int global) {
+        if (slot != -1) {
+            return interpreter -> interpreter.getLocal(slot);
+        }
+        if (upvalue != -1) {
+            return interpreter -> interpreter.upvalue(upvalue).value;
+        }
+        return interpreter -> interpreter.globals.get(global, name);
+    }
+}
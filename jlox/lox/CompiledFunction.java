@@ -0,0 +1,77 @@
+package jlox.lox;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Lox function compiled to a JVM class (see FunctionCompiler).
+ * The subclasses are generated at runtime. The static methods are the
+ * operations their code uses, with the same checks and errors as the
+ * Interpreter.
+ */
+abstract class CompiledFunction {
+    /**
+     * Run the function (the caller has checked the number of arguments).
+     * Return LoxFunction.TAIL_CALL if it ended with a tail call.
+     */
+    abstract Object call(Interpreter interpreter, List<Object> arguments);
+
+    /* The constants of a compiled class: its class data (see FunctionCompiler.compile) */
+    static Object[] constants(MethodHandles.Lookup lookup) {
+        try {
+            return MethodHandles.classData(lookup, ConstantDescs.DEFAULT_NAME, Object[].class);
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    static List<Object> arguments(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    /* Check the operand of a negation */
+    static double number(Token operator, Object operand) {
+        if (operand instanceof Double) {
+            return (double) operand;
+        }
+
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static Object get(Expr.Get expr, Object object) {
+        if (object instanceof LoxInstance) {
+            return expr.cache.get((LoxInstance) object, expr.name);
+        }
+
+        throw new RuntimeError(expr.name, "Only instances have properties.");
+    }
+
+    /* Check the object of a Set expression (before its value is evaluated) */
+    static LoxInstance instance(Expr.Set expr, Object object) {
+        if (object instanceof LoxInstance) {
+            return (LoxInstance) object;
+        }
+
+        throw new RuntimeError(expr.name, "Only instances have fields.");
+    }
+
+    static Object set(Expr.Set expr, LoxInstance instance, Object value) {
+        expr.cache.set(instance, expr.name, value);
+        return value;
+    }
+
+    /* Return the value of a call in tail position (see Interpreter.tailCall) */
+    static Object tailCall(Interpreter interpreter, Expr.Call expr, Object callee, List<Object> arguments) {
+        if (interpreter.tailCall(expr, callee, null, arguments) == Completion.TAIL_CALL) {
+            return LoxFunction.TAIL_CALL;
+        }
+        return interpreter.takeReturnValue();
+    }
+
+    static Object assignGlobal(Interpreter interpreter, int slot, Token name, Object value) {
+        interpreter.globals.assign(slot, name, value);
+        return value;
+    }
+}
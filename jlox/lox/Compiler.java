@@ -0,0 +1,705 @@
+package jlox.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compile the resolved syntax tree into bytecode for the VM.
+ * (mirror clox's compiler.c, but walk the AST instead of parsing tokens)
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        FUNCTION,
+        INITIALIZER,
+        METHOD,
+        SCRIPT, // implicit function for top-level code
+    }
+
+    private static class Local {
+        final String name; // variable name
+        int depth; // scope depth of the block where the variable was declared (-1: uninitialized)
+        boolean isCaptured = false; // true if the local is captured by any later nested function
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index; // enclosing function's local slot OR enclosing function's upvalue index
+        final boolean isLocal; // true -> enclosing function's local; false -> enclosing function's upvalue
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /* State of the function being compiled */
+    private static class FunctionCompiler {
+        final FunctionCompiler enclosing; // compiler of the enclosing function
+        final Obj.Function function = new Obj.Function();
+        final FunctionType type;
+
+        // All locals in current function's scope; same order as declaration order
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0; // number of blocks surrounding currently compiling code
+
+        // Index of already added constants (avoid duplicating names and numbers)
+        final Map<Object, Integer> constantIndex = new HashMap<>();
+
+        FunctionCompiler(FunctionCompiler enclosing, FunctionType type) {
+            this.enclosing = enclosing;
+            this.type = type;
+        }
+    }
+
+    /* Represent current class being compiled */
+    private static class ClassCompiler {
+        final ClassCompiler enclosing;
+        boolean hasSuperclass = false;
+
+        ClassCompiler(ClassCompiler enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private FunctionCompiler current = null;
+    private ClassCompiler currentClass = null;
+
+    // Token of the node being compiled.
+    // Used for the line numbers of emitted bytecode.
+    private Token token = null;
+
+    /* Compile top-level statements into the implicit script function */
+    Obj.Function compile(List<Stmt> statements) {
+        beginFunction(FunctionType.SCRIPT, null);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        return endFunction().function;
+    }
+
+    /* Compile a single statement */
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    /* Compile a single expression */
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk currentChunk() {
+        return current.function.chunk;
+    }
+
+    /* Set the token of the node being compiled */
+    private void at(Token token) {
+        this.token = token;
+    }
+
+    /* Append an opcode or an operand to the chunk */
+    private void emit(int value) {
+        currentChunk().write(value, token == null ? 0 : token.line);
+    }
+
+    /* Emit an instruction with its operand */
+    private void emit(int instruction, int operand) {
+        emit(instruction);
+        emit(operand);
+    }
+
+    private void emitLoop(int loopStart) {
+        // Jump back to loopStart
+        emit(OpCode.LOOP);
+
+        // (+1 to adjust for the jump offset)
+        emit(currentChunk().count - loopStart + 1);
+    }
+
+    /* Return offset of the placeholder jump offset */
+    private int emitJump(int instruction) {
+        emit(instruction, -1);
+        return currentChunk().count - 1;
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            // init() always returns 'this'
+            emit(OpCode.GET_LOCAL, 0);
+        } else {
+            // implicitly return nil by default
+            emit(OpCode.NIL);
+        }
+
+        emit(OpCode.RETURN);
+    }
+
+    /* Add a value to the constant table; return its index */
+    private int makeConstant(Object value) {
+        Integer index = current.constantIndex.get(value);
+        if (index != null) {
+            return index;
+        }
+
+        int constant = currentChunk().addConstant(value);
+
+        // Functions are never shared, only names and literals are
+        if (!(value instanceof Obj)) {
+            current.constantIndex.put(value, constant);
+        }
+        return constant;
+    }
+
+    /* Replace placeholder with the calculated jump offset */
+    private void patchJump(int offset) {
+        // (-1 to adjust for the jump offset itself)
+        currentChunk().code[offset] = currentChunk().count - offset - 1;
+    }
+
+    private FunctionCompiler beginFunction(FunctionType type, Token name) {
+        current = new FunctionCompiler(current, type);
+        if (name != null) {
+            current.function.name = name.lexeme;
+        }
+
+        // Claim local slot 0.
+        // When invoked, it holds the method receiver or the function being called
+        // (empty name since it is not accessed).
+        boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        current.locals.add(new Local(isMethod ? "this" : "", 0));
+        return current;
+    }
+
+    private FunctionCompiler endFunction() {
+        emitReturn();
+        FunctionCompiler compiler = current;
+        current = current.enclosing; // restore enclosing function's compiler
+        return compiler;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        // Free the stack slots for locals
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                // Hoist onto the heap if being closed-over
+                emit(OpCode.CLOSE_UPVALUE);
+            } else {
+                emit(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /*
+     * Return the variable index in 'locals',
+     * which is offset from the base of current call frame in VM stack.
+     * Return -1 if not found.
+     */
+    private int resolveLocal(FunctionCompiler compiler, String name) {
+        // Walk backward so inner local variables shadow outer ones
+        for (int i = compiler.locals.size() - 1; i >= 0; i--) {
+            if (compiler.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /* Get or add an upvalue to the function; return its index */
+    private int addUpvalue(FunctionCompiler compiler, int index, boolean isLocal) {
+        // Reuse resolved upvalue if possible
+        for (int i = 0; i < compiler.upvalues.size(); i++) {
+            Upvalue upvalue = compiler.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        compiler.upvalues.add(new Upvalue(index, isLocal));
+        return compiler.function.upvalueCount++;
+    }
+
+    /*
+     * Look for a local variable declared in any of the surrounding functions.
+     * Return an upvalue index if found, otherwise -1 (assumed to be global).
+     */
+    private int resolveUpvalue(FunctionCompiler compiler, String name) {
+        if (compiler.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(compiler.enclosing, name);
+        if (local != -1) {
+            // Hoist the variable to the heap when enclosing function's stack is discarded
+            compiler.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(compiler, local, true);
+        }
+
+        int upvalue = resolveUpvalue(compiler.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(compiler, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    /* Add a local variable to the current scope (uninitialized) */
+    private void addLocal(String name) {
+        current.locals.add(new Local(name, -1));
+    }
+
+    /* Declare a variable (global variables are late bound) */
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+
+        addLocal(name.lexeme);
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    /* Make the declared variable available for use */
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+
+        emit(OpCode.DEFINE_GLOBAL, makeConstant(name.lexeme));
+    }
+
+    /* Emit instruction to get (or set) a variable by name */
+    private void namedVariable(String name, boolean isAssign) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(isAssign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, arg);
+            return;
+        }
+
+        arg = resolveUpvalue(current, name);
+        if (arg != -1) {
+            emit(isAssign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, arg);
+            return;
+        }
+
+        emit(isAssign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, makeConstant(name));
+    }
+
+    /* Compile a function body and emit the closure in the enclosing function */
+    private void function(Stmt.Function stmt, FunctionType type) {
+        FunctionCompiler compiler = beginFunction(type, stmt.name);
+        beginScope();
+
+        for (Token param : stmt.params) {
+            current.function.arity++;
+            at(param);
+            declareVariable(param);
+            defineVariable(param);
+        }
+
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+
+        // No endScope(): the whole call frame is discarded on return
+        endFunction();
+
+        at(stmt.name);
+        emit(OpCode.CLOSURE, makeConstant(compiler.function));
+        for (Upvalue upvalue : compiler.upvalues) {
+            emit(upvalue.isLocal ? 1 : 0, upvalue.index);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        at(stmt.name);
+        int nameConstant = makeConstant(stmt.name.lexeme);
+        declareVariable(stmt.name);
+
+        emit(OpCode.CLASS, nameConstant);
+        defineVariable(stmt.name);
+
+        ClassCompiler classCompiler = new ClassCompiler(currentClass);
+        currentClass = classCompiler;
+
+        if (stmt.superclass != null) {
+            at(stmt.superclass.name);
+            namedVariable(stmt.superclass.name.lexeme, false);
+
+            // Store the superclass in a local variable named 'super'
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(stmt.name.lexeme, false);
+            emit(OpCode.INHERIT);
+            classCompiler.hasSuperclass = true;
+        }
+
+        // Load the class on top of stack so METHOD can bind methods to it
+        at(stmt.name);
+        namedVariable(stmt.name.lexeme, false);
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+
+            function(method, type);
+            emit(OpCode.METHOD, makeConstant(method.name.lexeme));
+        }
+
+        emit(OpCode.POP); // class
+
+        if (classCompiler.hasSuperclass) {
+            endScope();
+        }
+
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP); // discard evaluated result
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+
+        // A function can refer to itself inside its own body (recursion)
+        markInitialized();
+
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP); // condition is truthy -> pop before 'then' branch
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP); // condition is falsy -> pop before 'else' branch
+
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        at(stmt.keyword);
+        if (stmt.value == null) {
+            emitReturn();
+        } else if (stmt.tailCall) {
+            // RETURN is only reached if the callee isn't a Lox function
+            // (see VM.tailCall)
+            call((Expr.Call) stmt.value, OpCode.TAIL_CALL);
+            at(stmt.keyword);
+            emit(OpCode.RETURN);
+        } else {
+            compile(stmt.value);
+            at(stmt.keyword);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL); // initialized to nil by default
+        }
+
+        at(stmt.name);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = currentChunk().count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP); // discard condition value
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP); // discard condition value
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // Scope of the variable declared in the initializer
+        beginScope();
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        }
+
+        int loopStart = currentChunk().count;
+        int exitJump = -1;
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP); // discard condition value
+        }
+
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP); // discard increment value
+        }
+        emitLoop(loopStart);
+
+        // Omitted condition <=> infinite loop
+        if (exitJump != -1) {
+            patchJump(exitJump);
+            emit(OpCode.POP); // discard condition value
+        }
+
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        at(expr.name);
+        namedVariable(expr.name.lexeme, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                emit(OpCode.EQUAL, OpCode.NOT); // a != b <-> !(a == b)
+                break;
+            case EQUAL_EQUAL:
+                emit(OpCode.EQUAL);
+                break;
+            // Dedicated instructions for >= and <=:
+            // !(a < b) is not the same as a >= b when a or b is NaN
+            case GREATER:
+                emit(OpCode.GREATER);
+                break;
+            case GREATER_EQUAL:
+                emit(OpCode.GREATER_EQUAL);
+                break;
+            case LESS:
+                emit(OpCode.LESS);
+                break;
+            case LESS_EQUAL:
+                emit(OpCode.LESS_EQUAL);
+                break;
+            case PLUS:
+                emit(OpCode.ADD);
+                break;
+            case MINUS:
+                emit(OpCode.SUBTRACT);
+                break;
+            case STAR:
+                emit(OpCode.MULTIPLY);
+                break;
+            case SLASH:
+                emit(OpCode.DIVIDE);
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, OpCode.CALL);
+        return null;
+    }
+
+    /* Emit the callee, the arguments, then the call instruction (CALL or TAIL_CALL) */
+    private void call(Expr.Call expr, int instruction) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        at(expr.paren);
+        emit(instruction, expr.arguments.size());
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        at(expr.name);
+        emit(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT, makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            // left value is truthy -> skip right operand, left value is the result
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            // left value is falsy -> skip right operand, left value is the result
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+
+        // The Interpreter checks the object before evaluating the value.
+        // ('this' is always an instance)
+        at(expr.name);
+        if (!(expr.object instanceof Expr.This)) {
+            emit(OpCode.CHECK_INSTANCE);
+        }
+
+        compile(expr.value);
+        at(expr.name);
+        emit(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        at(expr.keyword);
+        namedVariable("this", false);
+        namedVariable("super", false);
+
+        at(expr.method);
+        emit(OpCode.GET_SUPER, makeConstant(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        at(expr.keyword);
+        namedVariable("this", false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case BANG:
+                emit(OpCode.NOT);
+                break;
+            case MINUS:
+                emit(OpCode.NEGATE);
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        at(expr.name);
+        namedVariable(expr.name.lexeme, false);
+        return null;
+    }
+}
@@ -0,0 +1,13 @@
+package jlox.lox;
+
+/**
+ * How the execution of a statement completed.
+ * Statements return this instead of throwing an exception
+ * to unwind to the enclosing function call.
+ * (the Interpreter holds the returned value)
+ */
+enum Completion {
+    NORMAL, // continue with the next statement
+    RETURN, // a 'return' statement was executed
+    TAIL_CALL, // a 'return' left its call to the caller's trampoline (see Interpreter.tailCall)
+}
@@ -1,84 +1,61 @@
 package jlox.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Represent the environment in which variables are stored.
+ * Represent the global environment.
+ * Each global name gets a slot when it is first seen (by the Resolver),
+ * so accesses index an array instead of looking the name up.
+ * A slot holds UNDEFINED until its variable is defined: a name can be
+ * referenced before its definition runs (e.g. in a function body).
+ * (local variables live in the Interpreter's frames)
  */
 public class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    /* Construct the global environment (with no enclosing environment) */
-    Environment() {
-        enclosing = null;
-    }
-
-    /* Construct a new environment enclosed by another environment */
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-
-    /* Define or redefine a variable in the current environment */
-    void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    /*
-     * Return the environment that is a certain distance away
-     * in the enclosing environment chain
-     */
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+    // Value of a slot whose variable is not defined (yet)
+    private static final Object UNDEFINED = new Object();
+
+    private final Table<Integer> slots = new Table<>();
+    private Object[] values = new Object[16];
+    private int count = 0;
+
+    /* Return the slot of a global variable (add a slot for a new name) */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
         }
 
-        return environment;
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count] = UNDEFINED;
+        slots.set(name, count);
+        return count++;
     }
 
-    /* Retrieve value of a variable in ancestor(distance) */
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    /* Define or redefine a global variable */
+    void define(String name, Object value) {
+        define(slotOf(name), value);
     }
 
-    /* Assign value to a variable in ancestor(distance) */
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    /*
-     * Look up the value of a variable.
-     * Recursively search the enclosing environments if needed.
-     */
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
+    /* Look up the value of a global variable */
+    Object get(int slot, Token name) {
+        Object value = values[slot];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
         }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        return value;
     }
 
-    /*
-     * Assign value to an existing variable.
-     * Recursively search the enclosing environments if needed.
-     */
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    /* Assign value to an existing global variable */
+    void assign(int slot, Token name, Object value) {
+        if (values[slot] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
         }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        values[slot] = value;
     }
 }
@@ -32,6 +32,9 @@ abstract class Expr {
 
 		final Token name;
 		final Expr value;
+		int slot = -1;
+		int upvalue = -1;
+		int global = -1;
 	}
 	static class Binary extends Expr {
 		Binary(Expr left, Token operator, Expr right) {
@@ -48,6 +51,8 @@ abstract class Expr {
 		final Expr left;
 		final Token operator;
 		final Expr right;
+		boolean numeric;
+		BinaryNode node = BinaryNode.UNINITIALIZED;
 	}
 	static class Call extends Expr {
 		Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -64,6 +69,7 @@ abstract class Expr {
 		final Expr callee;
 		final Token paren;
 		final List<Expr> arguments;
+		LoxCallSite site = new LoxCallSite(this);
 	}
 	static class Get extends Expr {
 		Get(Expr object, Token name) {
@@ -78,6 +84,7 @@ abstract class Expr {
 
 		final Expr object;
 		final Token name;
+		InlineCache cache = new InlineCache();
 	}
 	static class Grouping extends Expr {
 		Grouping(Expr expression) {
@@ -134,6 +141,7 @@ abstract class Expr {
 		final Expr object;
 		final Token name;
 		final Expr value;
+		InlineCache cache = new InlineCache();
 	}
 	static class Super extends Expr {
 		Super(Token keyword, Token method) {
@@ -148,6 +156,9 @@ abstract class Expr {
 
 		final Token keyword;
 		final Token method;
+		int upvalue = -1;
+		int thisSlot = -1;
+		int thisUpvalue = -1;
 	}
 	static class This extends Expr {
 		This(Token keyword) {
@@ -160,6 +171,8 @@ abstract class Expr {
 		}
 
 		final Token keyword;
+		int slot = -1;
+		int upvalue = -1;
 	}
 	static class Unary extends Expr {
 		Unary(Token operator, Expr right) {
@@ -186,5 +199,8 @@ abstract class Expr {
 		}
 
 		final Token name;
+		int slot = -1;
+		int upvalue = -1;
+		int global = -1;
 	}
 }
@@ -0,0 +1,564 @@
+package jlox.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compile hot Lox functions to JVM classes, so HotSpot can optimize them
+ * like Java code (inline the operations, keep locals in registers).
+ * A function is translated to Java source, compiled in memory with javac
+ * and loaded as a hidden class in this package.
+ * Only functions that don't capture or declare other functions/classes
+ * are compiled (their locals are plain Java variables). Anything else,
+ * or any failure, leaves the function to the Interpreter.
+ */
+class FunctionCompiler implements Expr.Visitor<String>, Stmt.Visitor<Boolean> {
+    // Compile hot functions (opt-in with --compile)
+    static boolean enabled = false;
+
+    // Number of calls that makes a function hot
+    static final int THRESHOLD = 1000;
+
+    private static final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
+    /* The function can't be compiled */
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final StringBuilder code = new StringBuilder();
+    private int indent = 3; // in the try block of call()
+
+    // Objects the generated code refers to (nodes, tokens, literal values,
+    // invokers of call sites), stored in static final fields of the compiled
+    // class: the JIT treats them as constants
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+
+    private int tempCount = 0; // temporaries of logical expressions
+
+    private FunctionCompiler() {
+    }
+
+    /**
+     * Compile the function.
+     * Return null if it is not supported or can't be compiled.
+     */
+    static CompiledFunction compile(Stmt.Function function) {
+        if (javac == null || function.upvalues.length != 0) {
+            return null;
+        }
+
+        try {
+            FunctionCompiler compiler = new FunctionCompiler();
+            String className = "CompiledFunction_" + function.name.lexeme;
+            String source = compiler.generate(function, className);
+
+            byte[] bytes = compileSource(className, source);
+            if (bytes == null) {
+                return null;
+            }
+
+            // The constants are the class data (see CompiledFunction.constants)
+            Class<?> compiled = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, compiler.constants.toArray(), true).lookupClass();
+            return (CompiledFunction) compiled.getDeclaredConstructor().newInstance();
+        } catch (Unsupported | ReflectiveOperationException | StackOverflowError error) {
+            // Keep interpreting (javac runs on the Lox call stack: a hot function
+            // reached deep in a recursion can leave it too little Java stack)
+            return null;
+        }
+    }
+
+    /* Translate the function to the source of a CompiledFunction class */
+    private String generate(Stmt.Function function, String className) {
+        // Locals: parameters first, then the other slots of the frame
+        for (int slot = 0; slot < function.frameSize; slot++) {
+            if (slot < function.params.size()) {
+                line("Object s" + slot + " = arguments.get(" + slot + ");");
+            } else {
+                line("Object s" + slot + " = null;");
+            }
+        }
+        line("Object discard;");
+
+        int header = code.length();
+        if (block(function.body)) {
+            line("return null;");
+        }
+
+        // Temporaries are known once the body is generated
+        StringBuilder temps = new StringBuilder();
+        for (int i = 0; i < tempCount; i++) {
+            temps.append("            Object t").append(i).append(" = null;\n");
+        }
+        code.insert(header, temps);
+
+        StringBuilder source = new StringBuilder();
+        source.append("package jlox.lox;\n\n");
+        source.append("import java.lang.invoke.MethodHandle;\n");
+        source.append("import java.lang.invoke.MethodHandles;\n");
+        source.append("import java.util.List;\n\n");
+        source.append("final class ").append(className).append(" extends CompiledFunction {\n");
+        for (int i = 0; i < constants.size(); i++) {
+            source.append("    private static final ").append(constantTypes.get(i)).append(" k").append(i)
+                    .append(";\n");
+        }
+        source.append("\n    static {\n");
+        source.append("        Object[] constants = CompiledFunction.constants(MethodHandles.lookup());\n");
+        for (int i = 0; i < constants.size(); i++) {
+            source.append("        k").append(i).append(" = (").append(constantTypes.get(i))
+                    .append(") constants[").append(i).append("];\n");
+        }
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    Object call(Interpreter interpreter, List<Object> arguments) {\n");
+        source.append("        try {\n");
+        source.append(code);
+        source.append("        } catch (RuntimeException | Error error) {\n");
+        source.append("            throw error;\n");
+        source.append("        } catch (Throwable error) {\n");
+        source.append("            // Declared by MethodHandle.invokeExact (the call targets don't throw it)\n");
+        source.append("            throw new IllegalStateException(error);\n");
+        source.append("        }\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /* Compile the source in memory, return the class file (null on error) */
+    private static byte[] compileSource(String className, String source) {
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+
+        JavaFileObject input = new SimpleJavaFileObject(
+                URI.create("string:///jlox/lox/" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+                javac.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(
+                        URI.create("bytes:///" + name.replace('.', '/') + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classFile;
+                    }
+                };
+            }
+        };
+
+        List<String> options = List.of("-classpath", classPath(), "-proc:none", "-g:none");
+        boolean compiled = javac.getTask(null, fileManager, new DiagnosticCollector<>(), options, null,
+                List.of(input)).call();
+        return compiled ? classFile.toByteArray() : null;
+    }
+
+    /* Where javac finds the interpreter's classes */
+    private static String classPath() {
+        String classPath = System.getProperty("java.class.path");
+        try {
+            URI location = FunctionCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+            return Paths.get(location) + File.pathSeparator + classPath;
+        } catch (Exception error) {
+            return classPath;
+        }
+    }
+
+    /* Add a constant, return the name of its field */
+    private String constant(Object value, String type) {
+        constants.add(value);
+        constantTypes.add(type);
+        return "k" + (constants.size() - 1);
+    }
+
+    private String temp() {
+        return "t" + tempCount++;
+    }
+
+    private void line(String text) {
+        code.append("    ".repeat(indent)).append(text).append('\n');
+    }
+
+    /**
+     * Generate statements until one can't complete normally
+     * (the following ones are dead code, which javac rejects).
+     * Return whether the statements can complete normally.
+     */
+    private boolean block(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!statement.accept(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Generate a nested statement inside braces */
+    private boolean nested(Stmt stmt) {
+        indent++;
+        boolean completes = stmt.accept(this);
+        indent--;
+        return completes;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block stmt) {
+        line("{");
+        indent++;
+        boolean completes = block(stmt.statements);
+        indent--;
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+        line("discard = " + stmt.expression.accept(this) + ";");
+        return true;
+    }
+
+    @Override
+    public Boolean visitForStmt(Stmt.For stmt) {
+        line("{");
+        indent++;
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+
+        // Lox has no 'break': a loop without condition only exits by returning
+        String condition = stmt.condition == null ? "true" : condition(stmt.condition);
+        if (condition.equals("false")) {
+            // Only the initializer runs (javac rejects the unreachable body)
+            indent--;
+            line("}");
+            return true;
+        }
+
+        line("while (" + condition + ") {");
+        nested(stmt.body);
+        if (stmt.increment != null) {
+            indent++;
+            line("discard = " + stmt.increment.accept(this) + ";");
+            indent--;
+        }
+        line("}");
+        indent--;
+        line("}");
+        return !condition.equals("true");
+    }
+
+    @Override
+    public Boolean visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If stmt) {
+        line("if (" + condition(stmt.condition) + ") {");
+        boolean completes = nested(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            line("}");
+            return true;
+        }
+
+        line("} else {");
+        completes |= nested(stmt.elseBranch);
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Stmt.Print stmt) {
+        line("System.out.println(Interpreter.stringify(" + stmt.expression.accept(this) + "));");
+        return true;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // Leave the call to the trampoline in LoxFunction.invoke
+            Expr.Call call = (Expr.Call) stmt.value;
+            line("return CompiledFunction.tailCall(interpreter, " + constant(call, "Expr.Call") + ", "
+                    + call.callee.accept(this) + ", " + arguments(call) + ");");
+            return false;
+        }
+
+        String value = stmt.value == null ? "null" : stmt.value.accept(this);
+        line("return " + value + ";");
+        return false;
+    }
+
+    @Override
+    public Boolean visitVarStmt(Stmt.Var stmt) {
+        String value = stmt.initializer == null ? "null" : stmt.initializer.accept(this);
+        line("s" + stmt.slot + " = " + value + ";");
+        return true;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While stmt) {
+        String condition = condition(stmt.condition);
+        if (condition.equals("false")) {
+            return true; // javac rejects the unreachable body
+        }
+
+        line("while (" + condition + ") {");
+        nested(stmt.body);
+        line("}");
+        return !condition.equals("true");
+    }
+
+    /* Generate a Java boolean expression for the truthiness of the value */
+    private String condition(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return Interpreter.isTruthy(((Expr.Literal) expr).value) ? "true" : "false";
+        }
+
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            String right = condition(((Expr.Unary) expr).right);
+            if (right.equals("true") || right.equals("false")) {
+                return right.equals("true") ? "false" : "true";
+            }
+            return "!" + right;
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            String operator = comparison(binary.operator.type);
+            if (operator != null && Interpreter.isNumeric(binary.left) && Interpreter.isNumeric(binary.right)) {
+                return "(" + number(binary.left) + " " + operator + " " + number(binary.right) + ")";
+            }
+        }
+
+        return "Interpreter.isTruthy(" + expr.accept(this) + ")";
+    }
+
+    /* Generate a Java double expression for a numeric expression (see Interpreter.isNumeric) */
+    private String number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return doubleLiteral((double) ((Expr.Literal) expr).value);
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return number(((Expr.Grouping) expr).expression);
+        }
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (Interpreter.isNumeric(unary.right)) {
+                return "(-" + number(unary.right) + ")";
+            }
+            return "(-CompiledFunction.number(" + constant(unary.operator, "Token") + ", "
+                    + unary.right.accept(this) + "))";
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        if (Interpreter.isNumeric(binary.left) && Interpreter.isNumeric(binary.right)) {
+            return "(" + number(binary.left) + " " + binary.operator.lexeme + " " + number(binary.right) + ")";
+        }
+
+        // Both operands are evaluated before their types are checked
+        return "((Double) BinaryNode." + arithmetic(binary.operator.type) + ".execute("
+                + constant(binary, "Expr.Binary") + ", " + binary.left.accept(this) + ", "
+                + binary.right.accept(this) + "))";
+    }
+
+    private static String doubleLiteral(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return "(" + value + ")";
+    }
+
+    /* Name of the BinaryNode for an arithmetic operator */
+    private static String arithmetic(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return "ADD";
+            case MINUS:
+                return "SUBTRACT";
+            case STAR:
+                return "MULTIPLY";
+            case SLASH:
+                return "DIVIDE";
+            default:
+                throw new Unsupported();
+        }
+    }
+
+    /* Java operator for a comparison operator (null for other operators) */
+    private static String comparison(TokenType operator) {
+        switch (operator) {
+            case GREATER:
+                return ">";
+            case GREATER_EQUAL:
+                return ">=";
+            case LESS:
+                return "<";
+            case LESS_EQUAL:
+                return "<=";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        String value = expr.value.accept(this);
+        if (expr.slot != -1) {
+            return "(s" + expr.slot + " = " + value + ")";
+        }
+        if (expr.upvalue != -1) {
+            throw new Unsupported();
+        }
+        return "CompiledFunction.assignGlobal(interpreter, " + expr.global + ", "
+                + constant(expr.name, "Token") + ", " + value + ")";
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        if (expr.numeric) {
+            return "Double.valueOf(" + number(expr) + ")";
+        }
+
+        boolean numbers = Interpreter.isNumeric(expr.left) && Interpreter.isNumeric(expr.right);
+        if (numbers && comparison(expr.operator.type) != null) {
+            return "Boolean.valueOf(" + condition(expr) + ")";
+        }
+
+        String left = expr.left.accept(this);
+        String right = expr.right.accept(this);
+        switch (expr.operator.type) {
+            case EQUAL_EQUAL:
+                return "Boolean.valueOf(Interpreter.isEqual(" + left + ", " + right + "))";
+            case BANG_EQUAL:
+                return "Boolean.valueOf(!Interpreter.isEqual(" + left + ", " + right + "))";
+            default:
+                // Use the self-specializing node, like the Interpreter
+                String binary = constant(expr, "Expr.Binary");
+                return binary + ".node.execute(" + binary + ", " + left + ", " + right + ")";
+        }
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        String callee = expr.callee.accept(this);
+
+        // Go through the call site's invoker: a constant here, so the JIT
+        // can inline the function the site is linked to
+        return "((Object) " + constant(expr.site.invoker(), "MethodHandle") + ".invokeExact((Object) " + callee
+                + ", interpreter, " + arguments(expr) + "))";
+    }
+
+    /* The list of the call's arguments */
+    private String arguments(Expr.Call expr) {
+        List<String> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(argument.accept(this));
+        }
+        return "CompiledFunction.arguments(" + String.join(", ", arguments) + ")";
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return "CompiledFunction.get(" + constant(expr, "Expr.Get") + ", " + expr.object.accept(this) + ")";
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            return "(Object) null";
+        }
+        if (expr.value instanceof Boolean) {
+            return (boolean) expr.value ? "Boolean.TRUE" : "Boolean.FALSE";
+        }
+        return constant(expr.value, "Object");
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        String temp = temp();
+        String left = expr.left.accept(this);
+        String right = expr.right.accept(this);
+
+        // OR returns the first truthy value, AND the first falsy value
+        if (expr.operator.type == TokenType.OR) {
+            return "(Interpreter.isTruthy(" + temp + " = " + left + ") ? " + temp + " : " + right + ")";
+        }
+        return "(Interpreter.isTruthy(" + temp + " = " + left + ") ? " + right + " : " + temp + ")";
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        String set = constant(expr, "Expr.Set");
+        return "CompiledFunction.set(" + set + ", CompiledFunction.instance(" + set + ", "
+                + expr.object.accept(this) + "), " + expr.value.accept(this) + ")";
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            return "Boolean.valueOf(" + condition(expr) + ")";
+        }
+        return "Double.valueOf(" + number(expr) + ")";
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot != -1) {
+            return "s" + expr.slot;
+        }
+        if (expr.upvalue != -1) {
+            throw new Unsupported();
+        }
+        return "interpreter.globals.get(" + expr.global + ", " + constant(expr.name, "Token") + ")";
+    }
+}
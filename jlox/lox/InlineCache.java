@@ -0,0 +1,117 @@
+package jlox.lox;
+
+/**
+ * Per-site cache of property lookups, keyed on the instance's shape.
+ * A shape fixes both the field layout and the class (and methods of a class
+ * never change after it is declared), so a cached entry stays valid
+ * for as long as the shape lives.
+ * The cache holds up to MAX_ENTRIES shapes (polymorphic site).
+ * When a site sees more shapes than that, it is marked megamorphic
+ * and every access takes the uncached path on the instance.
+ */
+class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private static class Entry {
+        final Shape shape;
+        final int slot; // index of the field, -1 if there is no such field
+        final LoxFunction method; // Get: method to bind if there is no field
+        final Shape transition; // Set: shape of the instance after the store
+
+        Entry(Shape shape, int slot, LoxFunction method, Shape transition) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.transition = transition;
+        }
+    }
+
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    /* Look up a property on the instance (for Expr.Get) */
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        Entry entry = find(shape);
+        if (entry == null) {
+            if (megamorphic) {
+                return instance.get(name);
+            }
+
+            entry = add(getEntry(shape, name.lexeme));
+        }
+
+        if (entry.slot != -1) {
+            return instance.fields[entry.slot];
+        }
+        if (entry.method != null) {
+            return entry.method.bind(instance);
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    /**
+     * Look up a method to invoke on the instance (for Expr.Call on Expr.Get).
+     * Return null if the property is not a method (a field shadows methods).
+     */
+    LoxFunction findMethod(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        Entry entry = find(shape);
+        if (entry == null) {
+            entry = getEntry(shape, name.lexeme);
+            if (!megamorphic) {
+                add(entry);
+            }
+        }
+
+        return entry.slot == -1 ? entry.method : null;
+    }
+
+    /* Set a property on the instance (for Expr.Set) */
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        Entry entry = find(shape);
+        if (entry == null) {
+            if (megamorphic) {
+                instance.set(name, value);
+                return;
+            }
+
+            int slot = shape.slotOf(name.lexeme);
+            if (slot != -1) {
+                entry = add(new Entry(shape, slot, null, shape));
+            } else {
+                entry = add(new Entry(shape, shape.size, null, shape.addField(name.lexeme)));
+            }
+        }
+
+        instance.store(entry.transition, entry.slot, value);
+    }
+
+    /* Describe how to get the property from instances of the shape */
+    private static Entry getEntry(Shape shape, String name) {
+        int slot = shape.slotOf(name);
+        LoxFunction method = slot == -1 ? shape.klass.findMethod(name) : null;
+        return new Entry(shape, slot, method, null);
+    }
+
+    private Entry find(Shape shape) {
+        for (int i = 0; i < count; i++) {
+            if (entries[i].shape == shape) {
+                return entries[i];
+            }
+        }
+        return null;
+    }
+
+    /* Remember the entry if there is room, otherwise give up caching */
+    private Entry add(Entry entry) {
+        if (count < MAX_ENTRIES) {
+            entries[count++] = entry;
+        } else {
+            megamorphic = true;
+        }
+        return entry;
+    }
+}
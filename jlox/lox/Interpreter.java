@@ -1,24 +1,48 @@
 package jlox.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Evaluate expressions and execute statements
  */
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
     // The (fixed) global environment
     final Environment globals = new Environment();
 
-    // The current environment (change as we enter and exit local scopes)
-    private Environment environment = globals;
+    private static final Cell[] NO_UPVALUES = new Cell[0];
 
-    // Maps expressions to the number of "hops" to reach their corresponding
-    // environment (from current environment). Used to efficiently locate the
-    // environment where a variable is defined during interpretation.
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Local variables of all active function calls.
+    // Each call has a frame of slots; the current frame starts at 'base'
+    // and the frame of the next call starts at 'frameEnd'.
+    private Object[] stack = new Object[256];
+    private int base = 0;
+    private int frameEnd = 0;
+
+    // Slots of the current frame that are captured by closures
+    // (they hold Cells)
+    private boolean[] captured = new boolean[0];
+
+    // Variables the current function captured from enclosing functions
+    private Cell[] upvalues = NO_UPVALUES;
+
+    // The value of the last executed 'return' statement
+    private Object returnValue;
+
+    // Number of Lox calls in progress (see LoxFunction.invoke),
+    // and its limit (set with --max-depth, checked by LoxCallSite)
+    int callDepth = 0;
+    int maxDepth = 1_000_000;
+
+    // Line of the last call to a Lox function (where a Java stack overflow is reported)
+    int callLine = 0;
+
+    // The call left by the last tail call (see tailCall),
+    // taken by the trampoline in LoxFunction.invoke
+    LoxFunction tailFunction;
+    LoxInstance tailReceiver;
+    List<Object> tailArguments;
 
     Interpreter() {
         // Define variable "clock" in global environment
@@ -42,30 +66,122 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     /**
      * Interpret the statements.
+     * 'frameSize' and 'captured' describe the frame for the local variables
+     * of the statements' blocks (computed by the Resolver).
      * Report runtime error.
      */
-    void interpret(List<Stmt> statements) {
+    void interpret(List<Stmt> statements, int frameSize, boolean[] captured) {
+        enterScript(frameSize, captured);
+
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
+        } catch (StackOverflowError error) {
+            stackOverflow();
+        }
+    }
+
+    /* Run a program compiled by the ClosureCompiler */
+    void interpret(ClosureCompiler.Exec program, int frameSize, boolean[] captured) {
+        enterScript(frameSize, captured);
+
+        try {
+            program.execute(this);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } catch (StackOverflowError error) {
+            stackOverflow();
         }
     }
 
+    /**
+     * Report running out of Java stack before --max-depth.
+     * Each Lox call nests Java calls, so the Java stack limits the depth
+     * of recursion too. It is reported like --max-depth, at the last call.
+     * (the frames are already popped: their 'finally' blocks ran)
+     */
+    private void stackOverflow() {
+        Lox.runtimeError(new RuntimeError(callLine, "Stack overflow."));
+    }
+
+    /* Set up the frame of the top-level script */
+    private void enterScript(int frameSize, boolean[] captured) {
+        base = 0;
+        frameEnd = frameSize;
+        ensureStack(frameEnd);
+        this.captured = captured;
+        upvalues = NO_UPVALUES;
+    }
+
     /* Execute a statement */
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /*
+     * Define a variable.
+     * Locals are stored in their frame slot (-1 for a global),
+     * globals in their global slot.
+     */
+    void define(int slot, int global, Object value) {
+        if (slot == -1) {
+            globals.define(global, value);
+        } else {
+            defineLocal(slot, value);
+        }
+    }
+
+    /* Initialize a slot of the current frame (box the value if it is captured) */
+    void defineLocal(int slot, Object value) {
+        stack[base + slot] = captured[slot] ? new Cell(value) : value;
+    }
+
+    Object getLocal(int slot) {
+        Object value = stack[base + slot];
+        if (value instanceof Cell) {
+            return ((Cell) value).value;
+        }
+        return value;
+    }
+
+    void setLocal(int slot, Object value) {
+        Object current = stack[base + slot];
+        if (current instanceof Cell) {
+            ((Cell) current).value = value;
+        } else {
+            stack[base + slot] = value;
+        }
+    }
+
+    /* Variable captured by the current function */
+    Cell upvalue(int index) {
+        return upvalues[index];
+    }
+
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
     }
 
     /**
-     * Associates an expression with its scope depth.
-     * Used to keep track of the number of scopes between
-     * a variable's usage and its declaration.
+     * Collect the variables a function captures when it is declared:
+     * boxed slots of the current frame, or upvalues of the current function.
      */
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private Cell[] captureUpvalues(Stmt.Function declaration) {
+        if (declaration.upvalues.length == 0) {
+            return NO_UPVALUES;
+        }
+
+        Cell[] cells = new Cell[declaration.upvalues.length];
+        for (int i = 0; i < cells.length; i++) {
+            int source = declaration.upvalues[i];
+            cells[i] = source >= 0 ? (Cell) stack[base + source] : upvalues[~source];
+        }
+        return cells;
     }
 
     /* Evaluate an expression */
@@ -73,139 +189,237 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    /*
-     * Execute a block of statements in a new environment.
-     * Revert to the original environment upon completion.
+    /**
+     * Execute the body of a function in a new frame.
+     * 'this' (for methods) and the arguments take the first slots.
      */
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    Completion executeFunction(Stmt.Function declaration, Cell[] closure,
+            LoxInstance receiver, List<Object> arguments) {
+        int previousBase = base;
+        int previousFrameEnd = frameEnd;
+        boolean[] previousCaptured = captured;
+        Cell[] previousUpvalues = upvalues;
+
+        base = frameEnd;
+        frameEnd = base + declaration.frameSize;
+        ensureStack(frameEnd);
+        captured = declaration.captured;
+        upvalues = closure;
+
         try {
-            this.environment = environment;
+            int slot = 0;
+            if (receiver != null) {
+                defineLocal(slot++, receiver);
+            }
+            for (Object argument : arguments) {
+                defineLocal(slot++, argument);
+            }
 
-            for (Stmt statement : statements) {
-                execute(statement);
+            // Run the compiled body in closure-compilation mode
+            if (declaration.code != null) {
+                return declaration.code.execute(this);
+            }
+
+            // (not executeStatements() and execute(): 2 Java frames less per call)
+            for (Stmt statement : declaration.body) {
+                Completion completion = statement.accept(this);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
             }
+            return Completion.NORMAL;
         } finally {
-            this.environment = previous;
+            // Drop the frame's values, so they can be garbage collected
+            Arrays.fill(stack, base, frameEnd, null);
+            base = previousBase;
+            frameEnd = previousFrameEnd;
+            captured = previousCaptured;
+            upvalues = previousUpvalues;
         }
     }
 
+    /* Execute statements in order, stop at a 'return' */
+    private Completion executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    /* Complete a 'return' statement with its value */
+    Completion returnWith(Object value) {
+        // Unwind to the function call, which takes the value
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    /* Take the value of the last executed 'return' statement */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // The block's variables already have slots in the current frame
+        return executeStatements(stmt.statements);
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        Object superclass = null;
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        declareClass(stmt, stmt.superclass == null ? null : evaluate(stmt.superclass));
+        return Completion.NORMAL;
+    }
+
+    /* Create the class and define its variable (given the evaluated superclass) */
+    void declareClass(Stmt.Class stmt, Object superclass) {
         if (stmt.superclass != null) {
-            superclass = evaluate(stmt.superclass);
             if (!(superclass instanceof LoxClass)) {
                 throw new RuntimeError(stmt.superclass.name, "Super class must be a class.");
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        // A local class gets its slot first: the methods may capture it
+        if (stmt.slot != -1) {
+            defineLocal(stmt.slot, null);
+        }
 
-        // Create a new environment if the class has superclass
+        // Store the superclass in the slot of 'super' (methods capture it)
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
-            // - When binding method ('bind' method of LoxFunction),
-            // the new environment with 'this' will have
-            // the environment with 'super' as its enclosing.
+            defineLocal(stmt.superSlot, superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        // The class's own methods (LoxClass adds the inherited ones)
+        Table<LoxFunction> methods = new Table<>();
         for (Stmt.Function method : stmt.methods) {
             // isInitializer - check if method name is 'init'
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, captureUpvalues(method),
+                    method.name.lexeme.equals("init"));
+            methods.set(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
 
-        // Pop the environment for superclass if needed
-        if (stmt.superclass != null) {
-            environment = environment.enclosing;
+        if (stmt.slot != -1) {
+            setLocal(stmt.slot, klass);
+        } else {
+            globals.define(stmt.global, klass);
         }
-
-        environment.assign(stmt.name, klass);
-
-        return null;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        // Closure: The function captures the current environment when it is declared.
-        LoxFunction function = new LoxFunction(stmt, environment, false);
+    public Completion visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            execute(stmt.initializer);
+        }
 
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        declareFunction(stmt);
+        return Completion.NORMAL;
+    }
+
+    /* Create the function and define its variable */
+    void declareFunction(Stmt.Function stmt) {
+        // Closure: The function captures the variables it uses
+        // from enclosing functions when it is declared.
+        // A local function gets its slot first, so it can capture itself (recursion).
+        if (stmt.slot != -1) {
+            defineLocal(stmt.slot, null);
+            setLocal(stmt.slot, new LoxFunction(stmt, captureUpvalues(stmt), false));
+        } else {
+            globals.define(stmt.global, new LoxFunction(stmt, captureUpvalues(stmt), false));
+        }
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            return (Completion) call((Expr.Call) stmt.value, true);
+        }
+
+        // (not evaluate(): 1 Java frame less per recursive call)
         Object value = null;
         if (stmt.value != null) {
-            value = evaluate(stmt.value);
+            value = stmt.value.accept(this);
         }
 
-        throw new Return(value);
+        return returnWith(value);
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.global, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        // The Resolver stored where the variable lives
+        if (expr.slot != -1) {
+            setLocal(expr.slot, value);
+        } else if (expr.upvalue != -1) {
+            upvalues[expr.upvalue].value = value;
         } else {
-            globals.assign(expr.name, value);
+            globals.assign(expr.global, expr.name, value);
         }
         return value;
     }
@@ -243,23 +457,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
+        expr.cache.set((LoxInstance) object, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        // Look up the super class
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(
-                distance, "super");
-
-        // The environment where "this" is bound is always
-        // right inside the environment where "super" is stored.
-        LoxInstance object = (LoxInstance) environment.getAt(
-                distance - 1, "this");
+        return findSuperMethod(expr).bind(superReceiver(expr));
+    }
 
-        // Loop up and bind the method
+    /* Look up the method on the super class */
+    LoxFunction findSuperMethod(Expr.Super expr) {
+        LoxClass superclass = (LoxClass) upvalues[expr.upvalue].value;
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
         if (method == null) {
@@ -267,12 +476,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     "Undefined property '" + expr.method.lexeme + "'.");
         }
 
-        return method.bind(object);
+        return method;
+    }
+
+    /* Look up 'this' for a super expression */
+    LoxInstance superReceiver(Expr.Super expr) {
+        return (LoxInstance) lookUpVariable(null, expr.thisSlot, expr.thisUpvalue, -1);
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.slot, expr.upvalue, -1);
     }
 
     @Override
@@ -282,6 +496,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS && isNumeric(expr.right)) {
+            return -evaluateDouble(expr.right);
+        }
+
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
@@ -299,101 +517,190 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.slot, expr.upvalue, expr.global);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    /*
+     * Look up a variable using the frame slot, upvalue index or global slot
+     * computed by the Resolver (only one of them is not -1)
+     */
+    private Object lookUpVariable(Token name, int slot, int upvalue, int global) {
+        if (slot != -1) {
+            return getLocal(slot);
+        } else if (upvalue != -1) {
+            return upvalues[upvalue].value;
         } else {
-            return globals.get(name);
+            return globals.get(global, name);
         }
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        // Arithmetic on numbers: only box the final result
+        if (expr.numeric) {
+            return evaluateDouble(expr);
+        }
+
+        // Comparison of numbers: don't box the operands
+        if (isNumeric(expr.left) && isNumeric(expr.right) && expr.node instanceof BinaryNode.Comparison) {
+            return ((BinaryNode.Comparison) expr.node).apply(evaluateDouble(expr.left), evaluateDouble(expr.right));
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
-            // Arithmetic
-            case MINUS:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left - (double) right;
-            case SLASH:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left * (double) right;
-
-            // Addition | Concatenation
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be 2 numbers or 2 strings.");
-
-            // Comparison
-            case GREATER:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left <= (double) right;
-
-            // Equality
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
+        // Dispatch on the node specialized for the operand types seen so far
+        return expr.node.execute(expr, left, right);
+    }
 
-            default:
-                break;
+    /**
+     * Check if an expression always produces a number (or throws a runtime error).
+     * Such expressions can be evaluated with evaluateDouble().
+     */
+    static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            return ((Expr.Binary) expr).numeric;
         }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumeric(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Double;
+        }
+        return false;
+    }
 
-        return null;
+    /**
+     * Evaluate a numeric expression (see isNumeric) to a primitive double.
+     * Nested numeric operands are evaluated without boxing
+     * intermediate results into Double objects.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (isNumeric(unary.right)) {
+                return -evaluateDouble(unary.right);
+            }
+
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator, right);
+            return -(double) right;
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        }
+
+        if (expr instanceof Expr.Literal) {
+            return (double) ((Expr.Literal) expr).value;
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        double left;
+        double right;
+        if (isNumeric(binary.left) && isNumeric(binary.right)) {
+            left = evaluateDouble(binary.left);
+            right = evaluateDouble(binary.right);
+        } else {
+            // Both operands are evaluated before their types are checked
+            Object leftValue = evaluate(binary.left);
+            Object rightValue = evaluate(binary.right);
+            checkNumberOperand(binary.operator, leftValue, rightValue);
+            left = (double) leftValue;
+            right = (double) rightValue;
+        }
+
+        // The resolver has specialized numeric nodes ahead of time
+        return ((BinaryNode.Arithmetic) binary.node).apply(left, right);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        // Call of a function value: made here (one Java frame less per call)
+        if (!(expr.callee instanceof Expr.Get) && !(expr.callee instanceof Expr.Super)) {
+            return expr.site.call(evaluate(expr.callee), null, this, evaluateArguments(expr));
         }
+        return call(expr, false);
+    }
 
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+    /**
+     * Evaluate the callee and the arguments, then make the call.
+     * A call in tail position ('tail') is left to the caller's trampoline
+     * instead: return the Completion of the 'return' statement.
+     */
+    private Object call(Expr.Call expr, boolean tail) {
+        Object callee;
+        LoxInstance receiver = null;
+
+        if (expr.callee instanceof Expr.Get) {
+            // Method call: pass the instance as 'this' directly,
+            // without creating a bound method
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance) object;
+            LoxFunction method = get.cache.findMethod(instance, get.name);
+            if (method != null) {
+                callee = method;
+                receiver = instance;
+            } else {
+                callee = get.cache.get(instance, get.name);
+            }
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            callee = findSuperMethod(superExpr);
+            receiver = superReceiver(superExpr);
+        } else {
+            callee = evaluate(expr.callee);
         }
 
-        LoxCallable function = (LoxCallable) callee;
+        List<Object> arguments = evaluateArguments(expr);
+        if (tail) {
+            return tailCall(expr, callee, receiver, arguments);
+        }
+        return expr.site.call(callee, receiver, this, arguments);
+    }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
-                    function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+    /**
+     * Complete a 'return' statement whose value is a call (in tail position).
+     * A call to a Lox function is not made here: it is left in tailFunction,
+     * tailReceiver and tailArguments for the trampoline in LoxFunction.invoke,
+     * which makes it once the returning function's frame is popped.
+     * So tail calls don't grow the Java stack or the frame stack.
+     * Other callees (classes, native functions) are called right away.
+     */
+    Completion tailCall(Expr.Call expr, Object callee, LoxInstance receiver, List<Object> arguments) {
+        LoxCallable function = expr.site.target(callee, receiver, arguments);
+        if (function instanceof LoxFunction) {
+            tailFunction = (LoxFunction) function;
+            tailReceiver = receiver;
+            tailArguments = arguments;
+            return Completion.TAIL_CALL;
         }
 
-        return function.call(this, arguments);
+        // (through the site, which checks the depth for an initializer)
+        return returnWith(expr.site.call(callee, receiver, this, arguments));
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return expr.cache.get((LoxInstance) object, expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -403,7 +710,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * Check the truthiness of a Lox value.
      * (only 'nil' and 'false' are falsy)
      */
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -417,13 +724,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * Check if 2 values are equal.
      * Handle nil/null specially to avoid NullPointerException.
      */
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
         if (a == null) {
             return false;
         }
+
+        // Compare the characters of concatenated strings,
+        // only flattened if the lengths match (a == in a loop that builds
+        // a string would flatten it on every iteration)
+        if (a instanceof Rope || b instanceof Rope) {
+            if (!Rope.isString(a) || !Rope.isString(b) || Rope.length(a) != Rope.length(b)) {
+                return false;
+            }
+            return a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 
@@ -444,7 +761,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     /* String representation of a Lox value */
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
@@ -1,8 +1,12 @@
 package jlox.lox;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -13,35 +17,107 @@ import java.util.List;
  */
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
+    // Execute with the bytecode VM instead of the tree-walking Interpreter
+    private static boolean useVm = false;
+
+    // Compile the program to closures before running it (see ClosureCompiler)
+    private static boolean useClosures = false;
+
+    // Size of the buffer for the output of 'print' (0: no buffering)
+    private static int bufferSize = 1 << 16;
+
     /*
      * Check command-line arguments.
      * Executes Lox code from a file or interactively.
      */
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: java jlox.lox.Lox [script_path]");
-            System.exit(64); // command-line usage error
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        String path = null;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                useVm = true;
+            } else if (arg.equals("--closures")) {
+                useClosures = true;
+            } else if (arg.equals("--compile")) {
+                FunctionCompiler.enabled = true;
+            } else if (arg.startsWith("--buffer-size=")) {
+                bufferSize = parseNumber(arg.substring("--buffer-size=".length()), 0);
+            } else if (arg.startsWith("--max-depth=")) {
+                // Deeper recursion is a runtime error ("Stack overflow.")
+                int maxDepth = parseNumber(arg.substring("--max-depth=".length()), 1);
+                interpreter.maxDepth = maxDepth;
+                vm.maxFrames = maxDepth;
+            } else if (path == null && !arg.startsWith("--")) {
+                path = arg;
+            } else {
+                usage();
+            }
+        }
+
+        // The VM runs bytecode: it has no closure or JVM compilation
+        if (useVm && (useClosures || FunctionCompiler.enabled)) {
+            usage();
+        }
+
+        // Buffer the output of the program instead of writing every line.
+        // It is flushed on exit, before errors are reported and at the prompt.
+        if (bufferSize > 0) {
+            FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            System.setOut(new PrintStream(new BufferedOutputStream(stdout, bufferSize), false));
+        }
+
+        try {
+            if (path != null) {
+                runFile(path);
+            } else {
+                runPrompt();
+            }
+        } finally {
+            System.out.flush();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: java jlox.lox.Lox [--vm | [--closures] [--compile]]"
+                + " [--buffer-size=<bytes>] [--max-depth=<calls>] [script_path]");
+        System.exit(64); // command-line usage error
+    }
+
+    /* Parse the number of a flag (at least 'min') */
+    private static int parseNumber(String text, int min) {
+        try {
+            int number = Integer.parseInt(text);
+            if (number >= min) {
+                return number;
+            }
+        } catch (NumberFormatException error) {
+            // Fall through to usage
+        }
+
+        usage();
+        return 0;
+    }
+
+    /* Flush the output of the program and exit */
+    private static void exit(int status) {
+        System.out.flush();
+        System.exit(status);
+    }
+
     /* Executes Lox program from a file */
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
 
         if (hadError) {
-            System.exit(65); // input data error
+            exit(65); // input data error
         }
 
         if (hadRuntimeError) {
-            System.exit(70); // internal software error
+            exit(70); // internal software error
         }
     }
 
@@ -52,6 +128,7 @@ public class Lox {
 
         for (;;) {
             System.out.print("> ");
+            System.out.flush();
             String line = reader.readLine();
             if (line == null) {
                 break;
@@ -73,7 +150,7 @@ public class Lox {
             return;
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.globals);
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
@@ -81,7 +158,18 @@ public class Lox {
             return;
         }
 
-        interpreter.interpret(statements);
+        // Fold constants and simplify the tree
+        new Optimizer().optimize(statements);
+
+        if (useVm) {
+            Obj.Function script = new Compiler().compile(statements);
+            vm.interpret(script);
+        } else if (useClosures) {
+            ClosureCompiler.Exec program = new ClosureCompiler().compile(statements);
+            interpreter.interpret(program, resolver.frameSize(), resolver.captured());
+        } else {
+            interpreter.interpret(statements, resolver.frameSize(), resolver.captured());
+        }
     }
 
     /* Reports a runtime error */
@@ -100,13 +188,15 @@ public class Lox {
 
     /* Helper for error reporting */
     private static void report(int line, String where, String message) {
+        System.out.flush(); // keep the order of output and errors
         System.err.println("[line " + line + "] Error" + where + ": " + message);
         hadError = true;
     }
 
     /* Reports a runtime error */
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        System.out.flush(); // keep the order of output and errors
+        System.err.println(error.getMessage() + "\n[line " + error.line + "]");
         hadRuntimeError = true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package jlox.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.List;
+
+/**
+ * Call site of an Expr.Call, caching the last callee it has called
+ * (a monomorphic inline cache).
+ * A call to a new callee checks it (callable, number of arguments) and
+ * caches it. Later calls to the same callee only check its identity.
+ * Compiled functions (see FunctionCompiler) call through a MutableCallSite
+ * instead, linked to the last Lox function they called: a guard on its
+ * identity in front of a direct call. Its invoker is a constant in the
+ * compiled code, so the JIT can inline the linked call into it.
+ */
+class LoxCallSite {
+    // Links of the MutableCallSite before it stays on the generic path
+    private static final int MAX_LINKS = 8;
+
+    private final Expr.Call expr;
+
+    // The cached callee (and whether it was invoked as a method)
+    private Object callee;
+    private boolean method;
+
+    // Created for the first compiled caller (see invoker())
+    private MutableCallSite site;
+    private int links = 0;
+
+    LoxCallSite(Expr.Call expr) {
+        this.expr = expr;
+    }
+
+    /**
+     * Call the callee ('receiver' is null unless the callee is a method to invoke).
+     * The number of arguments of the site never changes, so the arity of
+     * a callee only needs to be checked when it is cached.
+     */
+    Object call(Object callee, LoxInstance receiver, Interpreter interpreter, List<Object> arguments) {
+        LoxCallable function = target(callee, receiver, arguments);
+
+        // Lox functions are invoked directly (one Java frame less per call)
+        if (function instanceof LoxFunction) {
+            enter(interpreter);
+            return ((LoxFunction) function).invoke(interpreter, receiver, arguments);
+        }
+        if (function instanceof LoxClass && ((LoxClass) function).initializer != null) {
+            enter(interpreter);
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    /**
+     * Check the depth of calls before the call runs a Lox function
+     * (like the VM, which checks it before pushing a frame).
+     * Keep the line of the call, where running out of Java stack is reported
+     * (see Interpreter.interpret).
+     */
+    private void enter(Interpreter interpreter) {
+        if (interpreter.callDepth == interpreter.maxDepth) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+        interpreter.callLine = expr.paren.line;
+    }
+
+    /* Return the callee, checked for the call (see Interpreter.tailCall) */
+    LoxCallable target(Object callee, LoxInstance receiver, List<Object> arguments) {
+        if (callee == this.callee && (receiver != null) == method) {
+            return (LoxCallable) callee;
+        }
+
+        LoxCallable function = check(callee, arguments);
+        this.callee = callee;
+        this.method = receiver != null;
+        return function;
+    }
+
+    /* Check that the callee can be called with the arguments */
+    private LoxCallable check(Object callee, List<Object> arguments) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.size() != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.size() + ".");
+        }
+        return function;
+    }
+
+    /**
+     * Return the handle that compiled code invokes, of type Handles.TYPE.
+     * The method handles are only created for sites that compiled code uses:
+     * setting up java.lang.invoke slows down the start of every script.
+     */
+    MethodHandle invoker() {
+        if (site == null) {
+            site = new MutableCallSite(Handles.TYPE);
+            site.setTarget(Handles.RELINK.bindTo(this));
+        }
+        return site.dynamicInvoker();
+    }
+
+    /**
+     * Target of the MutableCallSite when the callee isn't the linked one:
+     * link the callee (if it is a Lox function), then call it.
+     * A site that sees too many callees, or another kind of callee
+     * (a class, a native function), stays on the generic path: call().
+     */
+    private Object relink(Object callee, Interpreter interpreter, List<Object> arguments) {
+        LoxCallable function = target(callee, null, arguments);
+
+        if (function instanceof LoxFunction && links++ < MAX_LINKS) {
+            MethodHandle test = Handles.IS_SAME.bindTo(function);
+            MethodHandle target = MethodHandles.insertArguments(Handles.INVOKE, 0, this, function);
+            site.setTarget(MethodHandles.guardWithTest(test, target, Handles.RELINK.bindTo(this)));
+        } else {
+            site.setTarget(MethodHandles.insertArguments(Handles.CALL.bindTo(this), 1, (Object) null));
+        }
+
+        return call(callee, null, interpreter, arguments);
+    }
+
+    /* Linked target (the guard has checked the callee) */
+    private static Object invoke(LoxCallSite site, LoxFunction function, Object callee,
+            Interpreter interpreter, List<Object> arguments) {
+        site.enter(interpreter);
+        return function.invoke(interpreter, null, arguments);
+    }
+
+    /* Guard of the linked target */
+    private static boolean isSame(Object linked, Object callee) {
+        return callee == linked;
+    }
+
+    /* The method handles (loaded with the first compiled caller) */
+    private static class Handles {
+        // (callee, interpreter, arguments) -> result
+        static final MethodType TYPE = MethodType.methodType(Object.class,
+                Object.class, Interpreter.class, List.class);
+
+        static final MethodHandle RELINK;
+        static final MethodHandle CALL;
+        static final MethodHandle INVOKE;
+        static final MethodHandle IS_SAME;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                RELINK = lookup.findVirtual(LoxCallSite.class, "relink", TYPE);
+                CALL = lookup.findVirtual(LoxCallSite.class, "call", TYPE.insertParameterTypes(1, LoxInstance.class));
+                INVOKE = lookup.findStatic(LoxCallSite.class, "invoke",
+                        TYPE.insertParameterTypes(0, LoxCallSite.class, LoxFunction.class));
+                IS_SAME = lookup.findStatic(LoxCallSite.class, "isSame",
+                        MethodType.methodType(boolean.class, Object.class, Object.class));
+            } catch (ReflectiveOperationException error) {
+                throw new ExceptionInInitializerError(error);
+            }
+        }
+    }
+}
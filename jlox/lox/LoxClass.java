@@ -1,32 +1,32 @@
 package jlox.lox;
 
 import java.util.List;
-import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    final Map<String, LoxFunction> methods;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    // All methods of the class, including inherited ones
+    // (flattened when the class is declared, never changed after)
+    private final Table<LoxFunction> methods;
+
+    final LoxFunction initializer; // null if there is no 'init' method
+    final Shape rootShape = new Shape(this); // shape of new instances
+
+    /* Create the class with its own methods (the inherited ones are added) */
+    LoxClass(String name, LoxClass superclass, Table<LoxFunction> methods) {
         this.superclass = superclass;
         this.name = name;
-        this.methods = methods;
+
+        // Inherited methods first, so the class's own methods override them
+        this.methods = superclass == null ? new Table<>() : new Table<>(superclass.methods);
+        this.methods.addAll(methods);
+        this.initializer = this.methods.get("init");
     }
 
-    /* Look up a method on current class.
-     * Recursively look up on the superclass if not found.
-     */
+    /* Look up a method on current class (or inherited from a superclass) */
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-
-        return null;
+        return methods.get(name);
     }
 
     @Override
@@ -34,11 +34,9 @@ class LoxClass implements LoxCallable {
         LoxInstance instance = new LoxInstance(this);
 
         // Handle user-defined constructor
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            // We bind the init() method before calling it,
-            // so it has access to 'this' inside its body
-            initializer.bind(instance).call(interpreter, arguments);
+            // Pass the new instance as 'this' for the init() method
+            initializer.invoke(interpreter, instance, arguments);
         }
 
         return instance;
@@ -46,7 +44,6 @@ class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -3,28 +3,41 @@ package jlox.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
+    // Returned by compiled code that ended with a tail call (see Interpreter.tailCall)
+    static final Object TAIL_CALL = new Object();
+
     private final Stmt.Function declaration;
 
-    // The environment at the time the function was defined.
+    // Variables captured from the enclosing functions when the function was defined.
     // Allows the function to access variables from its defining scope.
-    private final Environment closure;
+    private final Cell[] upvalues;
 
     // Whether the function is an initializer or not
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    // The instance a bound method is bound to
+    // (null for functions and for methods that are invoked directly)
+    private final LoxInstance receiver;
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer,
+            LoxInstance receiver) {
         this.isInitializer = isInitializer;
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
     }
 
-    /* Bind the method to a given instance */
+    /**
+     * Bind the method to a given instance.
+     * Only needed when the method is used as a value:
+     * method calls go through invoke() with the instance instead.
+     */
     LoxFunction bind(LoxInstance instance) {
-        // Create a new environment nestled inside the method’s original closure
-        // Declare “this” as a variable and bind it to the given instance
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, isInitializer, instance);
     }
 
     @Override
@@ -34,31 +47,77 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // Create a new environment for the function call
-        // with the function's closure as its parent
-        Environment environment = new Environment(closure);
+        return invoke(interpreter, null, arguments);
+    }
 
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    /**
+     * Call the function with a given receiver ('this').
+     * The receiver is null for functions that are not methods, and for
+     * bound methods (they use the instance they are bound to).
+     * This is a trampoline: when the function ends with a tail call to
+     * a Lox function, the loop runs the callee in its place (the frame
+     * of the function is already popped).
+     * The caller has checked the depth of calls (see LoxCallSite).
+     */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        if (receiver == null) {
+            receiver = this.receiver;
         }
+        interpreter.callDepth++;
 
+        LoxFunction function = this;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            // In initializer: empty return => return 'this'
-            if (isInitializer) {
-                return closure.getAt(0, "this");
-            }
+            while (true) {
+                Object value;
+
+                // Run hot functions as JVM code (methods stay interpreted: they need 'this')
+                if (receiver == null && FunctionCompiler.enabled && isCompiled(function.declaration)) {
+                    value = function.declaration.compiled.call(interpreter, arguments);
+                } else {
+                    Completion completion = interpreter.executeFunction(function.declaration, function.upvalues,
+                            receiver, arguments);
+                    value = completion == Completion.TAIL_CALL
+                            ? TAIL_CALL
+                            : function.result(interpreter, completion, receiver);
+                }
 
-            return returnValue.value;
+                if (value != TAIL_CALL) {
+                    return value;
+                }
+
+                // Tail call: a bound method keeps its own receiver
+                function = interpreter.tailFunction;
+                receiver = interpreter.tailReceiver != null ? interpreter.tailReceiver : function.receiver;
+                arguments = interpreter.tailArguments;
+
+                // Don't keep the call reachable once it is taken
+                interpreter.tailFunction = null;
+                interpreter.tailReceiver = null;
+                interpreter.tailArguments = null;
+            }
+        } finally {
+            interpreter.callDepth--;
         }
+    }
 
-        // Always return 'this' for an initializer
-        if (isInitializer) {
-            return closure.getAt(0, "this");
+    /**
+     * Compile the function once it is hot, return whether it is compiled.
+     * Compilation is only attempted once (a function it fails for stays interpreted).
+     */
+    private static boolean isCompiled(Stmt.Function declaration) {
+        if (!declaration.compileAttempted && ++declaration.calls >= FunctionCompiler.THRESHOLD) {
+            declaration.compileAttempted = true;
+            declaration.compiled = FunctionCompiler.compile(declaration);
         }
+        return declaration.compiled != null;
+    }
+
+    /* The value of a call that completed normally or with a 'return' */
+    private Object result(Interpreter interpreter, Completion completion, LoxInstance receiver) {
+        Object value = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
 
-        return null;
+        // Always return 'this' for an initializer (even for an empty return)
+        return isInitializer ? receiver : value;
     }
 
     @Override
@@ -1,14 +1,15 @@
 package jlox.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    Shape shape; // field layout
+    Object[] fields = NO_FIELDS; // field values, indexed by the shape
 
     LoxInstance(LoxClass klass) {
-        this.klass = klass;
+        this.shape = klass.rootShape;
     }
 
     /**
@@ -17,12 +18,13 @@ class LoxInstance {
      */
     Object get(Token name) {
         // Look for field
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            return fields[slot];
         }
 
         // If field is not found, look for method on the instance's class
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = shape.klass.findMethod(name.lexeme);
         if (method != null) {
             // Bind the method to current class instance
             return method.bind(this);
@@ -33,11 +35,25 @@ class LoxInstance {
 
     /* Set a property on the instance */
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            fields[slot] = value;
+        } else {
+            store(shape.addField(name.lexeme), shape.size, value);
+        }
+    }
+
+    /* Store a value in a field slot and move the instance to the given shape */
+    void store(Shape shape, int slot, Object value) {
+        if (slot >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(shape.size, fields.length * 2));
+        }
+        this.shape = shape;
+        fields[slot] = value;
     }
 
     @Override
     public String toString() {
-        return klass.name + " instance";
+        return shape.klass.name + " instance";
     }
 }
@@ -0,0 +1,121 @@
+package jlox.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Heap objects used by the bytecode VM.
+ * Numbers, booleans, nil and strings are represented by
+ * Double, Boolean, null and String (same as the tree-walking Interpreter).
+ * (mirror clox's object.h)
+ */
+abstract class Obj {
+    static class Function extends Obj {
+        int arity = 0; // number of parameters
+        int upvalueCount = 0;
+        final Chunk chunk = new Chunk();
+        String name; // null for top-level code
+
+        @Override
+        public String toString() {
+            if (name == null) {
+                return "<script>";
+            }
+            return "<fn " + name + ">";
+        }
+    }
+
+    static class Native extends Obj {
+        interface NativeFn {
+            Object call(Object[] args, int start);
+        }
+
+        final int arity;
+        final NativeFn function;
+
+        Native(int arity, NativeFn function) {
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    static class Upvalue extends Obj {
+        // Stack slot of the captured local variable while it is still on stack,
+        // -1 after it has been closed
+        int location;
+
+        // Where the closed-over variable lives (after its stack slot is discarded)
+        Object closed;
+
+        // Next upvalue in linked-list of all open upvalues
+        Upvalue next;
+
+        Upvalue(int location) {
+            this.location = location;
+        }
+    }
+
+    // Function + captured environment
+    static class Closure extends Obj {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    static class Class extends Obj {
+        final String name;
+        final Map<String, Closure> methods = new HashMap<>();
+
+        Class(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static class Instance extends Obj {
+        final Class klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Class klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static class BoundMethod extends Obj {
+        final Object receiver; // only Instance
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package jlox.lox;
+
+/**
+ * Instructions of the bytecode VM.
+ * Each instruction is an operation code followed by its operands
+ * (each one is an int in Chunk.code, see Chunk).
+ * (mirror clox's chunk.h)
+ */
+final class OpCode {
+    // Operand: constant index
+    static final int CONSTANT = 0;
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+
+    // Operand: local slot (relative to base of current frame)
+    static final int GET_LOCAL = 5;
+    static final int SET_LOCAL = 6;
+
+    // Operand: constant index of the variable name
+    static final int GET_GLOBAL = 7;
+    static final int DEFINE_GLOBAL = 8;
+    static final int SET_GLOBAL = 9;
+
+    // Operand: upvalue index
+    static final int GET_UPVALUE = 10;
+    static final int SET_UPVALUE = 11;
+
+    // Operand: constant index of the property name
+    static final int GET_PROPERTY = 12;
+    static final int SET_PROPERTY = 13;
+    static final int GET_SUPER = 14;
+
+    // Ensure the value on top of stack is an instance
+    // before the value of a property assignment is evaluated
+    static final int CHECK_INSTANCE = 15;
+
+    static final int EQUAL = 16;
+    static final int GREATER = 17;
+    static final int GREATER_EQUAL = 18;
+    static final int LESS = 19;
+    static final int LESS_EQUAL = 20;
+    static final int ADD = 21;
+    static final int SUBTRACT = 22;
+    static final int MULTIPLY = 23;
+    static final int DIVIDE = 24;
+    static final int NOT = 25;
+    static final int NEGATE = 26;
+    static final int PRINT = 27;
+
+    // Operand: jump offset
+    static final int JUMP = 28;
+    static final int JUMP_IF_FALSE = 29;
+    static final int LOOP = 30;
+
+    // Operand: argument count
+    static final int CALL = 31;
+
+    // Operands: constant index of the function,
+    // then a pair of (isLocal, index) for each upvalue
+    static final int CLOSURE = 32;
+    static final int CLOSE_UPVALUE = 33;
+    static final int RETURN = 34;
+
+    // Operand: constant index of the class / method name
+    static final int CLASS = 35;
+    static final int INHERIT = 36;
+    static final int METHOD = 37;
+
+    // Operand: argument count
+    // (a call in tail position: the callee reuses the caller's frame)
+    static final int TAIL_CALL = 38;
+
+    private OpCode() {
+    }
+}
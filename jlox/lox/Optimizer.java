@@ -0,0 +1,389 @@
+package jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplify the resolved AST before interpretation:
+ * - fold constant sub-expressions into literals
+ * - strip grouping expressions
+ * - apply algebraic identities that hold for numbers (x * 1 => x)
+ * - replace 'if' and 'while' statements that have constant conditions
+ * Expressions that would produce a runtime error are left alone,
+ * so the error is still reported when (and if) they are evaluated.
+ * Statement lists are updated in place. Rebuilt nodes keep the
+ * information the Resolver attached to the original nodes.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    /* Optimize the statements (in place) */
+    void optimize(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.set(i, optimize(statements.get(i)));
+        }
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /* An empty statement */
+    private static Stmt empty() {
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    private static boolean isLiteral(Expr expr, Object value) {
+        return expr instanceof Expr.Literal && value.equals(((Expr.Literal) expr).value);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        optimize(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            optimize(method);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Expr condition = stmt.condition == null ? null : optimize(stmt.condition);
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+
+        if (condition instanceof Expr.Literal) {
+            // The body never runs
+            if (!Interpreter.isTruthy(((Expr.Literal) condition).value) && initializer == null) {
+                return empty();
+            }
+
+            // Always true <=> no condition
+            if (Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+                condition = null;
+            }
+        }
+
+        Stmt body = optimize(stmt.body);
+
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+
+        return new Stmt.For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        optimize(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        // Only 1 branch can run
+        if (condition instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+                return thenBranch;
+            }
+            return elseBranch == null ? empty() : elseBranch;
+        }
+
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return stmt;
+        }
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) {
+            return stmt;
+        }
+        Stmt.Return ret = new Stmt.Return(stmt.keyword, value);
+        ret.tailCall = stmt.tailCall;
+        return ret;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            return stmt;
+        }
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.global = stmt.global;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        // The body never runs
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            return empty();
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.slot = expr.slot;
+        assign.upvalue = expr.upvalue;
+        assign.global = expr.global;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Object value = fold(expr.operator.type,
+                    ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (value != null) {
+                return new Expr.Literal(value);
+            }
+        }
+
+        // Identities (only when the other operand is a number,
+        // otherwise the operator would report an error)
+        switch (expr.operator.type) {
+            case STAR:
+                if (isLiteral(right, 1.0) && Interpreter.isNumeric(left)) {
+                    return left;
+                }
+                if (isLiteral(left, 1.0) && Interpreter.isNumeric(right)) {
+                    return right;
+                }
+                break;
+            case SLASH:
+                if (isLiteral(right, 1.0) && Interpreter.isNumeric(left)) {
+                    return left;
+                }
+                break;
+            case MINUS:
+                // Not for -0 (-0 - -0 is 0)
+                if (isLiteral(right, 0.0) && Interpreter.isNumeric(left)) {
+                    return left;
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+
+        Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+        Resolver.markNumeric(binary);
+        return binary;
+    }
+
+    /**
+     * Apply the operator to 2 constant operands.
+     * Return null if the operation would report an error.
+     */
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) {
+            return null;
+        }
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case STAR:
+                return a * b;
+            case SLASH:
+                return a / b;
+            case GREATER:
+                return a > b;
+            case GREATER_EQUAL:
+                return a >= b;
+            case LESS:
+                return a < b;
+            case LESS_EQUAL:
+                return a <= b;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expr.arguments.set(i, optimize(expr.arguments.get(i)));
+        }
+
+        Expr callee = optimize(expr.callee);
+        if (callee == expr.callee) {
+            return expr;
+        }
+        return new Expr.Call(callee, expr.paren, expr.arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // The constant left operand decides which operand is the result
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            if (expr.operator.type == TokenType.OR) {
+                return truthy ? left : right;
+            }
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (value instanceof Double) {
+                return new Expr.Literal(-(double) value);
+            }
+        }
+
+        // -(-x) => x
+        if (expr.operator.type == TokenType.MINUS && right instanceof Expr.Unary) {
+            Expr.Unary inner = (Expr.Unary) right;
+            if (inner.operator.type == TokenType.MINUS && Interpreter.isNumeric(inner.right)) {
+                return inner.right;
+            }
+        }
+
+        if (right == expr.right) {
+            return expr;
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -1,7 +1,6 @@
 package jlox.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static jlox.lox.TokenType.*;
@@ -13,6 +12,10 @@ import static jlox.lox.TokenType.*;
 class Parser {
     /* A custom runtime exception to indicate parsing error */
     private static class ParseError extends RuntimeException {
+        ParseError() {
+            // Only used to unwind to synchronize(): skip the stack trace
+            super(null, null, false, false);
+        }
     }
 
     private final List<Token> tokens;
@@ -133,26 +136,8 @@ class Parser {
 
         Stmt body = statement();
 
-        // The increment executes after the body in each iteration.
-        // => body = body + increment
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
-
-        // body + condition = while_loop
         // condition is omitted <=> infinite loop
-        if (condition == null) {
-            condition = new Expr.Literal(true);
-        }
-        body = new Stmt.While(condition, body);
-
-        // The initializer run once before the entire loop.
-        // => while_loop = initializer + while_loop
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt whileStatement() {
@@ -1,5 +1,7 @@
 package jlox.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,16 +10,64 @@ import java.util.Stack;
 /**
  * Walk through the AST to bind variable and function declarations
  * to their respective scopes before interpretation.
+ * Each function (and the top-level script) gets a frame:
+ * its local variables, including those of nested blocks, take slots
+ * in the frame. Variables of enclosing functions are reached through
+ * upvalues (same as clox's compiler). Global variables get a slot
+ * in the global environment.
  */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
+    /* A local variable declared in a scope */
+    private static class Local {
+        // Index of the variable in its function's frame
+        final int slot;
 
-    // The Boolean value indicates whether the variable
-    // has been initialized within the current local scope.
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+        // Whether the variable has been initialized
+        boolean initialized;
 
-    // Currently inside a function or not
-    private FunctionType currentFunction = FunctionType.NONE;
+        Local(int slot, boolean initialized) {
+            this.slot = slot;
+            this.initialized = initialized;
+        }
+    }
+
+    /* The function being resolved (the top-level script has one too) */
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final FunctionType type;
+
+        // Each local scope maps variable names to their Local info.
+        final Stack<Map<String, Local>> scopes = new Stack<>();
+
+        int localCount = 0; // number of variables in the open scopes
+        int frameSize = 0; // maximum number of variables in the open scopes
+
+        // Slots captured by closures (the interpreter boxes them in Cells)
+        boolean[] captured = new boolean[8];
+
+        // Variables captured from enclosing functions:
+        // a slot of the enclosing function's frame (>= 0),
+        // or ~index of one of the enclosing function's upvalues (< 0)
+        final List<Integer> upvalues = new ArrayList<>();
+
+        FunctionScope(FunctionScope enclosing, FunctionType type) {
+            this.enclosing = enclosing;
+            this.type = type;
+        }
+
+        /* Mark a slot as captured by a closure */
+        void markCaptured(int slot) {
+            if (slot >= captured.length) {
+                captured = Arrays.copyOf(captured, Math.max(slot + 1, captured.length * 2));
+            }
+            captured[slot] = true;
+        }
+
+        /* Captured flags, one for each slot of the frame */
+        boolean[] capturedSlots() {
+            return Arrays.copyOf(captured, frameSize);
+        }
+    }
 
     private enum FunctionType {
         NONE,
@@ -26,6 +76,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         METHOD,
     }
 
+    // Assigns slots to global variables
+    private final Environment globals;
+
+    // The function being resolved (NONE for the top-level script)
+    private FunctionScope current = new FunctionScope(null, FunctionType.NONE);
+
     // Currently inside a class or not
     private ClassType currentClass = ClassType.NONE;
 
@@ -35,8 +91,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS,
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Environment globals) {
+        this.globals = globals;
     }
 
     /* Resolve list of statements */
@@ -46,6 +102,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    /* Number of slots the top-level script needs (for its blocks) */
+    int frameSize() {
+        return current.frameSize;
+    }
+
+    /* Captured slots of the top-level script */
+    boolean[] captured() {
+        return current.capturedSlots();
+    }
+
     /* Resolve a single statement */
     private void resolve(Stmt stmt) {
         stmt.accept(this);
@@ -58,11 +124,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     /* Resolve a function */
     private void resolveFunction(Stmt.Function stmt, FunctionType type) {
-        // Save current function context before resolving the new function
-        FunctionType enclosingFunction = currentFunction;
-        currentFunction = type;
+        FunctionScope function = new FunctionScope(current, type);
+        current = function;
 
         beginScope();
+
+        // Methods receive 'this' in the first slot of their frame
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            defineImplicit("this");
+        }
+
         for (Token param : stmt.params) {
             declare(param);
 
@@ -74,60 +145,121 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(stmt.body);
         endScope();
 
-        // Restore the previous function context
-        currentFunction = enclosingFunction;
+        stmt.frameSize = function.frameSize;
+        stmt.captured = function.capturedSlots();
+        stmt.upvalues = new int[function.upvalues.size()];
+        for (int i = 0; i < stmt.upvalues.length; i++) {
+            stmt.upvalues[i] = function.upvalues.get(i);
+        }
+
+        // Restore the enclosing function
+        current = function.enclosing;
     }
 
     /* Enter a new scope */
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        current.scopes.push(new HashMap<String, Local>());
     }
 
-    /* Exit the current scope */
+    /* Exit the current scope (its slots can be reused) */
     private void endScope() {
-        scopes.pop();
+        current.localCount -= current.scopes.pop().size();
     }
 
-    /* Declare a variable in the current scope */
-    private void declare(Token name) {
-        if (scopes.isEmpty()) {
-            return;
-        }
+    /* Add a variable to the current scope, in the next free slot */
+    private int addLocal(String name, boolean initialized) {
+        int slot = current.localCount++;
+        current.frameSize = Math.max(current.frameSize, current.localCount);
+        current.scopes.peek().put(name, new Local(slot, initialized));
+        return slot;
+    }
 
-        Map<String, Boolean> scope = scopes.peek();
+    /**
+     * Declare a variable in the current scope.
+     * Return its slot, or -1 for a global variable.
+     */
+    private int declare(Token name) {
+        if (current.scopes.isEmpty()) {
+            return -1;
+        }
 
         // Don't allow re-declaration
-        if (scope.containsKey(name.lexeme)) {
+        if (current.scopes.peek().containsKey(name.lexeme)) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
 
-        // Add the variable to current scope, mark as not initialized
-        scope.put(name.lexeme, false);
+        // Mark as not initialized
+        return addLocal(name.lexeme, false);
+    }
+
+    /* Declare and define a variable that the interpreter binds implicitly */
+    private int defineImplicit(String name) {
+        return addLocal(name, true);
     }
 
     /* Define a variable in the current scope */
     private void define(Token name) {
-        if (scopes.isEmpty()) {
+        if (current.scopes.isEmpty()) {
             return;
         }
 
         // Mark the variable as initialized
-        scopes.peek().put(name.lexeme, true);
+        current.scopes.peek().get(name.lexeme).initialized = true;
+    }
+
+    /* Return the global slot of a variable that isn't local (slot is -1) */
+    private int global(int slot, Token name) {
+        return slot == -1 ? globals.slotOf(name.lexeme) : -1;
     }
 
     /**
-     * Traverse the stack of scopes (from innermost to outermost).
-     * Checks each scope to see if it contains the variable being resolved.
-     * Save the number of "hops" between the current scope and the
-     * scope where the variable is defined to the interpreter.
+     * Traverse the scopes of a function (from innermost to outermost).
+     * Return the slot of the variable, or -1 if the function doesn't declare it.
      */
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    private static int resolveLocal(FunctionScope function, String name) {
+        for (int i = function.scopes.size() - 1; i >= 0; i--) {
+            Local local = function.scopes.get(i).get(name);
+            if (local != null) {
+                return local.slot;
             }
         }
+
+        return -1;
+    }
+
+    /**
+     * Look for a variable in the enclosing functions.
+     * Return the index of the function's upvalue for it,
+     * or -1 if it is a global variable.
+     */
+    private static int resolveUpvalue(FunctionScope function, String name) {
+        if (function.enclosing == null) {
+            return -1;
+        }
+
+        int slot = resolveLocal(function.enclosing, name);
+        if (slot != -1) {
+            function.enclosing.markCaptured(slot);
+            return addUpvalue(function, slot);
+        }
+
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(function, ~upvalue);
+        }
+
+        return -1;
+    }
+
+    /* Return the index of the upvalue (reuse it if the function already has it) */
+    private static int addUpvalue(FunctionScope function, int source) {
+        int index = function.upvalues.indexOf(source);
+        if (index != -1) {
+            return index;
+        }
+
+        function.upvalues.add(source);
+        return function.upvalues.size() - 1;
     }
 
     @Override
@@ -143,7 +275,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        stmt.global = global(stmt.slot, stmt.name);
         define(stmt.name);
 
         if (stmt.superclass != null) {
@@ -155,16 +288,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superclass);
 
             // Create a new scope surrounding the methods
-            // and define 'super' in it
+            // and define 'super' in it (the methods capture it)
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superSlot = defineImplicit("super");
         }
 
-        // Create a new scope surrounding the methods
-        // and define “this” in it
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -174,8 +302,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null) {
             endScope();
         }
@@ -190,9 +316,37 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // A variable declared in the initializer is scoped to the loop
+        boolean hasScope = stmt.initializer instanceof Stmt.Var;
+        if (hasScope) {
+            beginScope();
+        }
+
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (stmt.condition != null) {
+            resolve(stmt.condition);
+        }
+
+        resolve(stmt.body);
+
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+
+        if (hasScope) {
+            endScope();
+        }
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        stmt.global = global(stmt.slot, stmt.name);
 
         // Mark the function as initialized immediately.
         // This lets a function refer to itself inside its own body (recursion).
@@ -220,17 +374,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
-        if (currentFunction == FunctionType.NONE) {
+        if (current.type == FunctionType.NONE) {
             Lox.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             // An initializer always returns 'this'
-            if (currentFunction == FunctionType.INITIALIZER) {
+            if (current.type == FunctionType.INITIALIZER) {
                 Lox.error(stmt.keyword, "Can't return a value from an initializer.");
             }
 
             resolve(stmt.value);
+
+            // The function's frame isn't needed for the call:
+            // run it in place of the function (see LoxFunction.invoke)
+            stmt.tailCall = stmt.value instanceof Expr.Call;
         }
 
         return null;
@@ -240,7 +398,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVarStmt(Stmt.Var stmt) {
         // Resolve the initializer after declaring but before defining the variable
         // -> compile error if variable is accessed in its own initializer
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        stmt.global = global(stmt.slot, stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -257,18 +416,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!current.scopes.isEmpty()) {
+            Local local = current.scopes.peek().get(expr.name.lexeme);
+            if (local != null && !local.initialized) {
+                Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
 
-        resolveLocal(expr, expr.name);
+        expr.slot = resolveLocal(current, expr.name.lexeme);
+        expr.upvalue = expr.slot == -1 ? resolveUpvalue(current, expr.name.lexeme) : -1;
+        expr.global = expr.upvalue == -1 ? global(expr.slot, expr.name) : -1;
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.slot = resolveLocal(current, expr.name.lexeme);
+        expr.upvalue = expr.slot == -1 ? resolveUpvalue(current, expr.name.lexeme) : -1;
+        expr.global = expr.upvalue == -1 ? global(expr.slot, expr.name) : -1;
         return null;
     }
 
@@ -276,9 +442,39 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+
+        markNumeric(expr);
         return null;
     }
 
+    /**
+     * Mark binary expressions that always produce a number (or fail),
+     * so the interpreter can evaluate them without boxing.
+     * When the operand types are known, also install the specialized node.
+     */
+    static void markNumeric(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                expr.numeric = Interpreter.isNumeric(expr.left) && Interpreter.isNumeric(expr.right);
+                break;
+            default:
+                break;
+        }
+
+        // Operand types are known: skip the runtime specialization
+        if (expr.numeric || (Interpreter.isNumeric(expr.left) && Interpreter.isNumeric(expr.right))) {
+            BinaryNode node = BinaryNode.forNumbers(expr.operator.type);
+            if (node != null) {
+                expr.node = node;
+            }
+        }
+    }
+
     @Override
     public Void visitCallExpr(Expr.Call expr) {
         resolve(expr.callee);
@@ -331,8 +527,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                     "Can't use 'super' in a class with no superclass.");
         }
 
-        // Resolve 'super' like a variable
-        resolveLocal(expr, expr.keyword);
+        // 'super' is declared outside of the methods: always an upvalue.
+        // A super call also needs 'this'.
+        expr.upvalue = resolveUpvalue(current, "super");
+        expr.thisSlot = resolveLocal(current, "this");
+        expr.thisUpvalue = expr.thisSlot == -1 ? resolveUpvalue(current, "this") : -1;
         return null;
     }
 
@@ -344,7 +543,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         // Resolve 'this' like a variable
-        resolveLocal(expr, expr.keyword);
+        expr.slot = resolveLocal(current, "this");
+        expr.upvalue = expr.slot == -1 ? resolveUpvalue(current, "this") : -1;
         return null;
     }
 
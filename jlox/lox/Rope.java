@@ -0,0 +1,89 @@
+package jlox.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string made by concatenation, flattened only when its characters
+ * are needed (printed, compared).
+ * Building a string in a loop (s = s + "...") with Java strings copies
+ * everything built so far on each step (quadratic). A rope only links
+ * its 2 parts, and flattening copies each character once.
+ * Lox strings are either a String or a Rope.
+ */
+class Rope {
+    // Concatenations shorter than this just copy (cheaper than a rope)
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+
+    // The parts (String or Rope), dropped once the rope is flattened
+    private Object left;
+    private Object right;
+
+    private String flat; // null until flattened
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /* Concatenate 2 Lox strings */
+    static Object concat(Object left, Object right) {
+        int length = length(left) + length(right);
+        if (length < MIN_LENGTH) {
+            return left.toString() + right.toString();
+        }
+        return new Rope(left, right, length);
+    }
+
+    /* Number of characters of a Lox string (doesn't flatten a rope) */
+    static int length(Object string) {
+        return string instanceof Rope ? ((Rope) string).length : ((String) string).length();
+    }
+
+    /* Return the characters of the rope (flatten it on first use) */
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flatten();
+        }
+        return flat;
+    }
+
+    /*
+     * Copy the parts in order.
+     * Use an explicit stack: ropes built in a loop are deep
+     * (one level per concatenation).
+     */
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Object> parts = new ArrayDeque<>();
+        parts.push(this);
+
+        while (!parts.isEmpty()) {
+            Object part = parts.pop();
+            if (part instanceof String) {
+                builder.append((String) part);
+                continue;
+            }
+
+            Rope rope = (Rope) part;
+            if (rope.flat != null) {
+                builder.append(rope.flat);
+            } else {
+                parts.push(rope.right);
+                parts.push(rope.left);
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+}
@@ -1,10 +1,20 @@
 package jlox.lox;
 
+/**
+ * Runtime error reported to the user.
+ * Stack traces are never shown, so they are not captured.
+ */
 class RuntimeError extends RuntimeException {
-    final Token token;
+    final int line;
 
     RuntimeError(Token token, String message) {
-        super(message);
-        this.token = token;
+        super(message, null, false, false);
+        this.line = token.line;
+    }
+
+    /* Used by the VM, which only knows the line of the failing instruction */
+    RuntimeError(int line, String message) {
+        super(message, null, false, false);
+        this.line = line;
     }
 }
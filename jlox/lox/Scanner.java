@@ -256,7 +256,11 @@ class Scanner {
         if (type == null) {
             type = IDENTIFIER;
         }
-        addToken(type);
+
+        // Intern the name: every occurrence of a name shares 1 String
+        // (with the names in the interpreter's code too, e.g. "init", "this"),
+        // so name lookups compare references and reuse the cached hash.
+        tokens.add(new Token(type, text.intern(), null, line));
     }
 
     private boolean isDigit(char c) {
@@ -0,0 +1,49 @@
+package jlox.lox;
+
+/**
+ * Hidden class describing the field layout of instances:
+ * field name -> index into the instance's field array.
+ * Instances of a class start with the class's root shape.
+ * Adding a field moves the instance to a child shape. Transitions are
+ * remembered, so instances that get the same fields in the same order
+ * share the same shapes.
+ */
+class Shape {
+    final LoxClass klass;
+    final int size; // number of fields
+    private final Table<Integer> slots;
+    private Table<Shape> transitions; // created on first transition
+
+    /* Create the root shape (no fields) of a class */
+    Shape(LoxClass klass) {
+        this(klass, new Table<>());
+    }
+
+    private Shape(LoxClass klass, Table<Integer> slots) {
+        this.klass = klass;
+        this.size = slots.size();
+        this.slots = slots;
+    }
+
+    /* Return the index of the field, or -1 if the shape doesn't have it */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /* Return the shape with a new field appended (at index 'size') */
+    Shape addField(String name) {
+        if (transitions == null) {
+            transitions = new Table<>();
+        }
+
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Table<Integer> nextSlots = new Table<>(slots);
+            nextSlots.set(name, size);
+            next = new Shape(klass, nextSlots);
+            transitions.set(name, next);
+        }
+        return next;
+    }
+}
@@ -7,6 +7,7 @@ abstract class Stmt {
 		R visitBlockStmt(Block stmt);
 		R visitClassStmt(Class stmt);
 		R visitExpressionStmt(Expression stmt);
+		R visitForStmt(For stmt);
 		R visitFunctionStmt(Function stmt);
 		R visitIfStmt(If stmt);
 		R visitPrintStmt(Print stmt);
@@ -43,6 +44,9 @@ abstract class Stmt {
 		final Token name;
 		final Expr.Variable superclass;
 		final List<Stmt.Function> methods;
+		int slot = -1;
+		int superSlot = -1;
+		int global = -1;
 	}
 	static class Expression extends Stmt {
 		Expression(Expr expression) {
@@ -56,6 +60,24 @@ abstract class Stmt {
 
 		final Expr expression;
 	}
+	static class For extends Stmt {
+		For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+			this.initializer = initializer;
+			this.condition = condition;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitForStmt(this);
+		}
+
+		final Stmt initializer;
+		final Expr condition;
+		final Expr increment;
+		final Stmt body;
+	}
 	static class Function extends Stmt {
 		Function(Token name, List<Token> params, List<Stmt> body) {
 			this.name = name;
@@ -71,6 +93,15 @@ abstract class Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+		int slot = -1;
+		int global = -1;
+		int frameSize;
+		boolean[] captured;
+		int[] upvalues;
+		int calls;
+		boolean compileAttempted;
+		CompiledFunction compiled;
+		ClosureCompiler.Exec code;
 	}
 	static class If extends Stmt {
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -113,6 +144,7 @@ abstract class Stmt {
 
 		final Token keyword;
 		final Expr value;
+		boolean tailCall;
 	}
 	static class Var extends Stmt {
 		Var(Token name, Expr initializer) {
@@ -127,6 +159,8 @@ abstract class Stmt {
 
 		final Token name;
 		final Expr initializer;
+		int slot = -1;
+		int global = -1;
 	}
 	static class While extends Stmt {
 		While(Expr condition, Stmt body) {
@@ -0,0 +1,138 @@
+package jlox.lox;
+
+/**
+ * Hash table from names to values (same design as clox's table.c):
+ * open addressing with linear probing. Keys are never removed
+ * (variables, fields and methods are never deleted), so there are no tombstones.
+ * The entries are stored inline in one array (key, then value), so
+ * a lookup doesn't allocate, and a hit reads the key and its value from
+ * the same cache line (java.util.HashMap chases a pointer to a Node).
+ * The load factor is lower than clox's, which keeps the probe sequences
+ * of missing keys short (most lookups of fields miss, then find a method).
+ * Keys must be interned (see Scanner): they are compared by identity.
+ * Values can't be null (get() returns null for a missing key).
+ */
+class Table<V> {
+    // Capacity (number of entries) of a new table: a power of 2
+    private static final int MIN_CAPACITY = 16;
+
+    // Key of entry i at 2 * i, its value at 2 * i + 1
+    private Object[] entries;
+    private int size = 0; // number of keys (used entries)
+
+    Table() {
+        entries = new Object[MIN_CAPACITY * 2];
+    }
+
+    /* Create a copy of the table */
+    Table(Table<V> from) {
+        entries = from.entries.clone();
+        size = from.size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /* Return the value of the key, or null if the table doesn't have it */
+    @SuppressWarnings("unchecked")
+    V get(String key) {
+        Object[] entries = this.entries;
+        int mask = entries.length - 2; // index of the last key
+        int index = (hash(key) << 1) & mask;
+
+        // Most lookups end at the first entry (the table is mostly empty)
+        Object entry = entries[index];
+        while (entry != key) {
+            if (entry == null) {
+                return null; // reached an empty entry
+            }
+            index = (index + 2) & mask;
+            entry = entries[index];
+        }
+        return (V) entries[index + 1];
+    }
+
+    /**
+     * Add a key-value pair (overwrite the value if the key is present).
+     * Return true if a new key was added.
+     */
+    boolean set(String key, V value) {
+        // At most a quarter of the entries are used
+        int capacity = entries.length / 2;
+        if (size + 1 > capacity / 4) {
+            adjustCapacity(capacity * 2);
+        }
+
+        int index = findEntry(entries, key);
+        boolean isNewKey = entries[index] == null;
+        if (isNewKey) {
+            size++;
+        }
+
+        entries[index] = key;
+        entries[index + 1] = value;
+        return isNewKey;
+    }
+
+    /* Copy all entries from another table */
+    @SuppressWarnings("unchecked")
+    void addAll(Table<V> from) {
+        Object[] entries = from.entries;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] != null) {
+                set((String) entries[i], (V) entries[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Scramble the (cached) String hash.
+     * Names like 'a1', 'a2' have consecutive hashes, which would fill
+     * consecutive buckets and make long probe sequences for other keys.
+     */
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Use linear probing to find the entry for the key (index of its key):
+     * the entry of the key if it is present, otherwise the empty entry
+     * that ends the probe sequence.
+     * (the table is never full, so the sequence reaches an empty entry)
+     */
+    private static int findEntry(Object[] entries, String key) {
+        int mask = entries.length - 2;
+        int index = (hash(key) << 1) & mask;
+        Object entry = entries[index];
+        while (entry != key && entry != null) {
+            index = (index + 2) & mask;
+            entry = entries[index];
+        }
+        return index;
+    }
+
+    /* Move the entries to a new, larger array */
+    private void adjustCapacity(int capacity) {
+        Object[] newEntries = new Object[capacity * 2];
+
+        for (int i = 0; i < entries.length; i += 2) {
+            Object key = entries[i];
+            if (key == null) {
+                continue;
+            }
+
+            // The new array has no other entry for the key
+            int mask = newEntries.length - 2;
+            int index = (hash((String) key) << 1) & mask;
+            while (newEntries[index] != null) {
+                index = (index + 2) & mask;
+            }
+            newEntries[index] = key;
+            newEntries[index + 1] = entries[i + 1];
+        }
+
+        entries = newEntries;
+    }
+}
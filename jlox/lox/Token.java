@@ -2,7 +2,7 @@ package jlox.lox;
 
 class Token {
     final TokenType type;
-    final String lexeme;
+    final String lexeme; // interned for identifiers and keywords
     final Object literal;
     final int line;
 
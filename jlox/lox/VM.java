@@ -0,0 +1,580 @@
+package jlox.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack-based virtual machine that executes the bytecode produced by the Compiler.
+ * (mirror clox's vm.c)
+ */
+class VM {
+    private static final String INIT_STRING = "init";
+
+    /* Represent an ongoing function call */
+    private static class CallFrame {
+        Obj.Closure closure; // function being called
+        int ip; // instruction pointer (index into current function's code)
+        int slots; // 1st slot on VM's stack this function can use
+    }
+
+    // Grown on demand: the depth of recursion is only bounded by maxFrames
+    // and the heap (not by the Java stack, the VM loop doesn't recurse)
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    // Maximum number of calls in progress (set with --max-depth)
+    int maxFrames = 1_000_000;
+
+    private Object[] stack = new Object[256];
+    private int stackTop = 0; // 1 past last item
+
+    private final Map<String, Object> globals = new HashMap<>();
+
+    // All upvalues still pointing to stack slots
+    // (ordered by decreasing stack slot index)
+    private Obj.Upvalue openUpvalues = null;
+
+    VM() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        globals.put("clock", new Obj.Native(0,
+                (args, start) -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    /**
+     * Execute the top-level function.
+     * Report runtime error.
+     */
+    void interpret(Obj.Function function) {
+        Obj.Closure closure = new Obj.Closure(function);
+        push(closure); // put top-level closure at stack slot 0
+        call(closure, 0); // set up initial CallFrame
+
+        try {
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, stackTop, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    /* Create a runtime error at the instruction being executed */
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        // (-1 since the interpreter advances past an instruction before executing it)
+        int line = frame.closure.function.chunk.lines[frame.ip - 1];
+        return new RuntimeError(line, message);
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        return stack[--stackTop];
+    }
+
+    private Object peek(int distance) {
+        return stack[stackTop - 1 - distance];
+    }
+
+    /* Initialize the next CallFrame on the stack */
+    private void call(Obj.Closure closure, int argCount) {
+        checkArity(closure, argCount);
+
+        // The script's frame is not a call
+        if (frameCount - 1 == maxFrames) {
+            throw error("Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            growFrames();
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        // local slot 0 is callee or method receiver,
+        // parameters start from slot 1
+        frame.slots = stackTop - argCount - 1;
+    }
+
+    private void checkArity(Obj.Closure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity +
+                    " arguments but got " + argCount + ".");
+        }
+    }
+
+    /**
+     * Call in tail position: a Lox function (or bound method) runs in
+     * the current frame, in place of the returning function, so tail calls
+     * don't count as calls in progress (like the Interpreter's trampoline,
+     * see LoxFunction.invoke).
+     * Other callees are called like CALL does (the RETURN after returns their value).
+     */
+    private void tailCall(CallFrame frame, Object callee, int argCount) {
+        Obj.Closure closure;
+        Object receiver = callee; // local slot 0 of the callee
+        if (callee instanceof Obj.Closure) {
+            closure = (Obj.Closure) callee;
+        } else if (callee instanceof Obj.BoundMethod) {
+            Obj.BoundMethod bound = (Obj.BoundMethod) callee;
+            closure = bound.method;
+            receiver = bound.receiver;
+        } else {
+            callValue(callee, argCount);
+            return;
+        }
+        checkArity(closure, argCount);
+
+        // The returning function's locals are gone: close their upvalues,
+        // then move the callee's window (receiver, arguments) down to the frame's base
+        closeUpvalues(frame.slots);
+        stack[frame.slots] = receiver;
+        System.arraycopy(stack, stackTop - argCount, stack, frame.slots + 1, argCount);
+        int newTop = frame.slots + argCount + 1;
+        Arrays.fill(stack, newTop, stackTop, null);
+        stackTop = newTop;
+
+        frame.closure = closure;
+        frame.ip = 0;
+    }
+
+    private void growFrames() {
+        int capacity = (int) Math.min((long) frames.length * 2, (long) maxFrames + 1);
+        frames = Arrays.copyOf(frames, capacity);
+        for (int i = frameCount; i < capacity; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof Obj.Closure) {
+            call((Obj.Closure) callee, argCount);
+        } else if (callee instanceof Obj.BoundMethod) {
+            Obj.BoundMethod bound = (Obj.BoundMethod) callee;
+            // Put method receiver at local slot 0 of next frame
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof Obj.Class) {
+            // Replace class slot with new instance
+            Obj.Class klass = (Obj.Class) callee;
+            stack[stackTop - argCount - 1] = new Obj.Instance(klass);
+
+            Obj.Closure initializer = klass.methods.get(INIT_STRING);
+            if (initializer != null) {
+                // local slot 0 of next frame is the new instance
+                call(initializer, argCount);
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof Obj.Native) {
+            Obj.Native nativeFn = (Obj.Native) callee;
+            if (argCount != nativeFn.arity) {
+                throw error("Expected " + nativeFn.arity +
+                        " arguments but got " + argCount + ".");
+            }
+
+            Object result = nativeFn.function.call(stack, stackTop - argCount);
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw error("Can only call functions and classes.");
+        }
+    }
+
+    /* Replace the instance on top of stack with a method bound to it */
+    private void bindMethod(Obj.Class klass, String name) {
+        Obj.Closure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+
+        Obj.BoundMethod bound = new Obj.BoundMethod(peek(0), method);
+        pop(); // instance
+        push(bound);
+    }
+
+    /*
+     * Create upvalue for a local variable of the enclosing function.
+     * Reuse the existing open upvalue if it points to the same slot
+     * (closures accessing the same variable must share it).
+     */
+    private Obj.Upvalue captureUpvalue(int local) {
+        Obj.Upvalue prevUpvalue = null;
+        Obj.Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > local) {
+            prevUpvalue = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.location == local) {
+            return upvalue;
+        }
+
+        Obj.Upvalue createdUpvalue = new Obj.Upvalue(local);
+        createdUpvalue.next = upvalue;
+
+        if (prevUpvalue == null) {
+            openUpvalues = createdUpvalue;
+        } else {
+            prevUpvalue.next = createdUpvalue;
+        }
+
+        return createdUpvalue;
+    }
+
+    /* Move every open upvalue with slot >= last from the stack to the heap */
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            Obj.Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private Object readUpvalue(Obj.Upvalue upvalue) {
+        return upvalue.location != -1 ? stack[upvalue.location] : upvalue.closed;
+    }
+
+    private void writeUpvalue(Obj.Upvalue upvalue, Object value) {
+        if (upvalue.location != -1) {
+            stack[upvalue.location] = value;
+        } else {
+            upvalue.closed = value;
+        }
+    }
+
+    /* Ensure the operands of a binary operation are numbers */
+    private void checkNumberOperands() {
+        if (!(peek(0) instanceof Double) || !(peek(1) instanceof Double)) {
+            throw error("Operands must be numbers.");
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1]; // current frame
+        int[] code = frame.closure.function.chunk.code;
+        List<Object> constants = frame.closure.function.chunk.constants;
+
+        for (;;) {
+            int instruction = code[frame.ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    push(constants.get(code[frame.ip++]));
+                    break;
+                }
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+                case OpCode.POP:
+                    pop();
+                    break;
+                case OpCode.GET_LOCAL: {
+                    int slot = code[frame.ip++]; // relative to base of current frame
+                    push(stack[frame.slots + slot]);
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = code[frame.ip++];
+                    stack[frame.slots + slot] = peek(0); // don't pop (assignment is an expression)
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    String name = readString(frame, code, constants);
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw error("Undefined variable '" + name + "'");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = readString(frame, code, constants);
+                    globals.put(name, peek(0));
+                    pop();
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    String name = readString(frame, code, constants);
+                    if (!globals.containsKey(name)) {
+                        throw error("Undefined variable '" + name + "'");
+                    }
+                    globals.put(name, peek(0)); // don't pop (assignment is an expression)
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    int slot = code[frame.ip++];
+                    push(readUpvalue(frame.closure.upvalues[slot]));
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    int slot = code[frame.ip++];
+                    writeUpvalue(frame.closure.upvalues[slot], peek(0));
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = readString(frame, code, constants);
+                    if (!(peek(0) instanceof Obj.Instance)) {
+                        throw error("Only instances have properties.");
+                    }
+
+                    Obj.Instance instance = (Obj.Instance) peek(0);
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        pop(); // instance
+                        push(value);
+                        break;
+                    }
+
+                    bindMethod(instance.klass, name);
+                    break;
+                }
+                case OpCode.CHECK_INSTANCE:
+                    if (!(peek(0) instanceof Obj.Instance)) {
+                        throw error("Only instances have fields.");
+                    }
+                    break;
+                case OpCode.SET_PROPERTY: {
+                    String name = readString(frame, code, constants);
+                    if (!(peek(1) instanceof Obj.Instance)) {
+                        throw error("Only instances have fields.");
+                    }
+
+                    Obj.Instance instance = (Obj.Instance) peek(1);
+                    instance.fields.put(name, peek(0));
+                    Object value = pop();
+                    pop(); // instance
+                    push(value); // setter is an expression
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = readString(frame, code, constants);
+                    Obj.Class superclass = (Obj.Class) pop();
+
+                    // Bind superclass's method to the instance on top of stack
+                    bindMethod(superclass, name);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = pop();
+                    Object a = pop();
+                    push(Interpreter.isEqual(a, b));
+                    break;
+                }
+                case OpCode.GREATER: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a > b);
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a >= b);
+                    break;
+                }
+                case OpCode.LESS: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a < b);
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a <= b);
+                    break;
+                }
+                case OpCode.ADD: {
+                    if (peek(0) instanceof Double && peek(1) instanceof Double) {
+                        double b = (double) pop();
+                        double a = (double) pop();
+                        push(a + b);
+                    } else if (Rope.isString(peek(0)) && Rope.isString(peek(1))) {
+                        Object b = pop();
+                        Object a = pop();
+                        push(Rope.concat(a, b)); // (not a + b: quadratic in a loop)
+                    } else {
+                        throw error("Operands must be 2 numbers or 2 strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a - b);
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a * b);
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a / b);
+                    break;
+                }
+                case OpCode.NOT:
+                    push(!Interpreter.isTruthy(pop()));
+                    break;
+                case OpCode.NEGATE:
+                    if (!(peek(0) instanceof Double)) {
+                        throw error("Operand must be a number.");
+                    }
+                    push(-(double) pop());
+                    break;
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(pop()));
+                    break;
+                case OpCode.JUMP: {
+                    int offset = code[frame.ip++];
+                    frame.ip += offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = code[frame.ip++];
+                    // don't pop condition value (used for short-circuiting by logical operators)
+                    if (!Interpreter.isTruthy(peek(0))) {
+                        frame.ip += offset;
+                    }
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = code[frame.ip++];
+                    frame.ip -= offset; // jump backward to loopStart
+                    break;
+                }
+                case OpCode.CALL: {
+                    // The callee is below the arguments on top of stack
+                    int argCount = code[frame.ip++];
+                    callValue(peek(argCount), argCount);
+
+                    // There may be a new CallFrame
+                    // (native function calls don't create new CallFrame)
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[frame.ip++];
+                    tailCall(frame, peek(argCount), argCount);
+
+                    // The frame may run another function now, or there may be a new one
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Obj.Function function = (Obj.Function) constants.get(code[frame.ip++]);
+                    Obj.Closure closure = new Obj.Closure(function);
+                    push(closure);
+
+                    // Fill the upvalue array
+                    // (current function is the enclosing function of the new closure)
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[frame.ip++] == 1;
+                        int upvalueIndex = code[frame.ip++];
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(frame.slots + upvalueIndex);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[upvalueIndex];
+                        }
+                    }
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    // the variable to hoist is on top of stack
+                    closeUpvalues(stackTop - 1);
+                    pop();
+                    break;
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    // close all open upvalues owned by the returning function
+                    closeUpvalues(frame.slots);
+
+                    frameCount--; // discard CallFrame of the returning function
+                    if (frameCount == 0) {
+                        // finished executing top-level code
+                        pop();
+                        return;
+                    }
+
+                    // discard the called function's stack window
+                    Arrays.fill(stack, frame.slots, stackTop, null);
+                    stackTop = frame.slots;
+                    push(result);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                case OpCode.CLASS:
+                    push(new Obj.Class(readString(frame, code, constants)));
+                    break;
+                case OpCode.INHERIT: {
+                    Object superclass = peek(1);
+                    if (!(superclass instanceof Obj.Class)) {
+                        throw error("Super class must be a class.");
+                    }
+
+                    // Copy all methods from superclass to subclass
+                    // (methods of the subclass are defined after, so they override)
+                    Obj.Class subclass = (Obj.Class) peek(0);
+                    subclass.methods.putAll(((Obj.Class) superclass).methods);
+                    pop(); // subclass
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = readString(frame, code, constants);
+                    Obj.Closure method = (Obj.Closure) peek(0);
+                    Obj.Class klass = (Obj.Class) peek(1);
+                    klass.methods.put(name, method);
+                    pop(); // method closure
+                    break;
+                }
+                default:
+                    throw error("Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+
+    /* Read a constant index and return the name stored there */
+    private static String readString(CallFrame frame, int[] code, List<Object> constants) {
+        return (String) constants.get(code[frame.ip++]);
+    }
+}
@@ -22,29 +22,30 @@ public class GenerateAst {
 
         // The abstract syntax tree for Expressions
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Assign   : Token name, Expr value | int slot = -1, int upvalue = -1, int global = -1",
+                "Binary   : Expr left, Token operator, Expr right | boolean numeric, BinaryNode node = BinaryNode.UNINITIALIZED",
+                "Call     : Expr callee, Token paren, List<Expr> arguments | LoxCallSite site = new LoxCallSite(this)",
+                "Get      : Expr object, Token name | InlineCache cache = new InlineCache()",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+                "Super    : Token keyword, Token method | int upvalue = -1, int thisSlot = -1, int thisUpvalue = -1",
+                "This     : Token keyword | int slot = -1, int upvalue = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"));
+                "Variable : Token name | int slot = -1, int upvalue = -1, int global = -1"));
 
         // The abstract syntax tree for Statements
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1, int superSlot = -1, int global = -1",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
+                "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int global = -1, int frameSize, boolean[] captured, int[] upvalues, int calls, boolean compileAttempted, CompiledFunction compiled, ClosureCompiler.Exec code",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Return     : Token keyword, Expr value | boolean tailCall",
+                "Var        : Token name, Expr initializer | int slot = -1, int global = -1",
                 "While      : Expr condition, Stmt body"));
     }
 
@@ -67,10 +68,15 @@ public class GenerateAst {
         printLine("abstract <R> R accept(Visitor<R> visitor);");
 
         // The AST classes
+        // (fields after '|' are not constructor parameters,
+        // they are filled in later by the Resolver.
+        // e.g. 'slot' is the index of a local variable in its function's frame,
+        // -1 if the variable is not a local of the current function)
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String mutableFields = fields.length > 1 ? fields[1].trim() : null;
+            defineType(baseName, className, fields[0].trim(), mutableFields);
         }
 
         level--;
@@ -78,7 +84,7 @@ public class GenerateAst {
         writer.close();
     }
 
-    private static void defineType(String baseName, String className, String fieldList) {
+    private static void defineType(String baseName, String className, String fieldList, String mutableFieldList) {
         printLine("static class " + className + " extends " + baseName + " {");
         level++;
 
@@ -112,6 +118,12 @@ public class GenerateAst {
             printLine("final " + field + ";");
         }
 
+        if (mutableFieldList != null) {
+            for (String field : mutableFieldList.split(", ")) {
+                printLine(field + ";");
+            }
+        }
+
         level--;
         printLine("}");
     }